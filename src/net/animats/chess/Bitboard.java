@@ -0,0 +1,296 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+/**
+ * This class holds the constants and helper methods used to work with
+ * bitboards: 64-bit longs in which each bit stands for one square of the
+ * board. Bit 0 is a1, bit 7 is h1 and bit 63 is h8, so the index of a
+ * square is always rank * 8 + file.
+ */
+final class Bitboard {
+	static final long FILE_A = 0x0101010101010101L;
+	static final long FILE_H = FILE_A << 7;
+	static final long NOT_FILE_A = ~FILE_A;
+	static final long NOT_FILE_H = ~FILE_H;
+	static final long NOT_FILES_AB = ~(FILE_A | (FILE_A << 1));
+	static final long NOT_FILES_GH = ~(FILE_H | (FILE_H >>> 1));
+
+	static final long RANK_1 = 0xFFL;
+	static final long RANK_8 = RANK_1 << 56;
+
+	// The four centre squares: d4, e4, d5 and e5.
+	static final long CENTRE = 0x0000001818000000L;
+
+	// These arrays are indexed by file or rank number.
+	static final long[] FILE_MASK = new long[8];
+	static final long[] RANK_MASK = new long[8];
+
+	// The files either side of each file, used to find isolated pawns.
+	static final long[] ADJACENT_FILES = new long[8];
+
+	// These tables hold the squares attacked by a knight, king or pawn on
+	// each square so they can be looked up rather than worked out. The pawn
+	// table is indexed by [colour][square].
+	static final long[] KNIGHT_ATTACKS = new long[64];
+	static final long[] KING_ATTACKS = new long[64];
+	static final long[][] PAWN_ATTACKS = new long[2][64];
+
+	// The squares strictly between two squares on the same rank, file or 
+	// diagonal, indexed by [square][square]. Squares that don't share a line
+	// have nothing between them.
+	static final long[][] BETWEEN = new long[64][64];
+
+	// The whole rank, file or diagonal running through two squares, including
+	// both of them, indexed by [square][square]. A piece pinned to its king
+	// can only move along the line through the king and the piece.
+	static final long[][] LINE = new long[64][64];
+
+	// Rooks, bishops and queens are looked up with "magic" bitboards. For
+	// each square, the pieces on the squares that could block the slider
+	// (its mask, which leaves out the edge of the board as a piece there
+	// blocks nothing) are multiplied by a magic number chosen so that the
+	// top bits of the product are a unique index for every arrangement of
+	// blockers that gives a different set of attacks. That index selects
+	// the attack set from a table filled in when the class is loaded.
+	private static final long[] ROOK_MASKS = new long[64];
+	private static final int[] ROOK_SHIFTS = new int[64];
+	private static final long[][] ROOK_TABLE = new long[64][];
+
+	private static final long[] BISHOP_MASKS = new long[64];
+	private static final int[] BISHOP_SHIFTS = new int[64];
+	private static final long[][] BISHOP_TABLE = new long[64][];
+
+	// The magic numbers were found by trial and error, trying random numbers 
+	// with few bits set until one worked for each square.
+	private static final long[] ROOK_MAGICS = {
+		0x0900102100408000L, 0x4040002000401000L, 0x1100200010090042L, 0xA18010000D280080L,
+		0x4600140A00201008L, 0x0100020400080100L, 0x0400189001440208L, 0x4100022340920300L,
+		0x5801800040008020L, 0x8050400040201000L, 0x8042004012002080L, 0x0100801000080080L,
+		0x1182000410200A00L, 0x000C8006008C0080L, 0x0522001488020031L, 0x0520800900005080L,
+		0x0080818000400028L, 0x2010084020004000L, 0x5018808010002003L, 0x0008808008001000L,
+		0x0200050008001100L, 0x0000808004000200L, 0x0804040010010802L, 0x80020A0001049444L,
+		0x4002400180008020L, 0x40400020A0100801L, 0x5100100480200082L, 0x016C100100210408L,
+		0x0800050100100800L, 0x1A04020080800400L, 0x00507004000D6228L, 0x2801008A00040051L,
+		0x2000400081800060L, 0x0480402000401002L, 0x4100204082001200L, 0x6004100084800800L,
+		0x0000804802800400L, 0x0200800400800200L, 0x8002000842000124L, 0x8C080147020001ACL,
+		0x2400802040008000L, 0x0050002000404001L, 0x0040420020820010L, 0x000010400A020020L,
+		0x0008020004004040L, 0x0044000810020200L, 0x0108080201040090L, 0x0100A09044020001L,
+		0x0080084008200A40L, 0x0CC2108020410200L, 0x3000200280900380L, 0x0001081001012300L,
+		0x00600C0008008180L, 0x0800020080040080L, 0x0282010210088400L, 0x0041800100086480L,
+		0x0480082210428101L, 0x0052860040130022L, 0x000E104020020901L, 0x0C0A848810010021L,
+		0x0041000208001005L, 0x8002000110040802L, 0x2108020130080084L, 0x0401001082002243L
+	};
+
+	private static final long[] BISHOP_MAGICS = {
+		0x0094089004062840L, 0x0002302202304001L, 0x4110108A02500080L, 0x0029041500054000L,
+		0x201110400014AC00L, 0x1006411040240000L, 0x4021043120281100L, 0x240202060A010401L,
+		0x1420C20842208200L, 0xA500200802404040L, 0x01C0840122020024L, 0x000C244102200094L,
+		0x0410445040200804L, 0x02DA0082602100C2L, 0x0010010410240540L, 0x0040024108511004L,
+		0x0020401020118322L, 0x82022020280A12AAL, 0x0290024100488100L, 0x8182048422020016L,
+		0x0004000822080400L, 0x0222010100424204L, 0x000D000228020208L, 0x0082020021040202L,
+		0x01201802A0A90900L, 0x010431000A100300L, 0x8080404828048104L, 0x0100802208020020L,
+		0x3481080401004002L, 0x4040410102010124L, 0x2802084004042210L, 0x002088A802070400L,
+		0x90044240000A5000L, 0x000450040A080100L, 0x2006020110320800L, 0x0410020081180080L,
+		0x0084010400020082L, 0x802000A501208040L, 0x1028222400004145L, 0x0810810101020492L,
+		0x0008021130050524L, 0x0004020290203280L, 0x0111001082081010L, 0x06E0C20124000600L,
+		0x0200600140410400L, 0x0040008088830100L, 0x2010020819004044L, 0x0014080208200240L,
+		0x2800820120200400L, 0x000208420A900012L, 0x7010002402481008L, 0x00041400A1980080L,
+		0x0400224005010120L, 0x88002014106480C0L, 0x4061021202040580L, 0x0009021802002084L,
+		0x0040808088B04004L, 0x10400020A4100860L, 0x0108040442009011L, 0x4400400202842400L,
+		0x8808A41051620200L, 0x1000001260180120L, 0x50D02428080800B0L, 0x1250200810822044L
+	};
+
+	// The directions, as { rank offset, file offset }, that rooks and bishops slide in.
+	private static final int[][] ROOK_DIRECTIONS = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+	private static final int[][] BISHOP_DIRECTIONS = { { -1, -1 }, { -1, 1 }, { 1, -1 }, { 1, 1 } };
+
+	static {
+		for (int index = 0; index < 8; index++) {
+			FILE_MASK[index] = FILE_A << index;
+			RANK_MASK[index] = RANK_1 << (index * 8);
+		}
+
+		for (int file = 0; file < 8; file++) {
+			if (file > 0)
+				ADJACENT_FILES[file] |= FILE_MASK[file - 1];
+			if (file < 7)
+				ADJACENT_FILES[file] |= FILE_MASK[file + 1];
+		}
+
+		for (int square = 0; square < 64; square++) {
+			long bit = Bit(square);
+
+			KNIGHT_ATTACKS[square] = KnightAttacks(bit);
+			KING_ATTACKS[square] = KingAttacks(bit);
+			PAWN_ATTACKS[Resources.BLACK][square] = PawnAttacks(bit, Resources.BLACK);
+			PAWN_ATTACKS[Resources.WHITE][square] = PawnAttacks(bit, Resources.WHITE);
+		}
+
+		for (int square = 0; square < 64; square++) {
+			for (int[][] directions : new int[][][] { ROOK_DIRECTIONS, BISHOP_DIRECTIONS }) {
+				for (int[] direction : directions) {
+					// Walk out along the line, collecting the squares passed over.
+					long passed = 0;
+					int rank = Rank(square) + direction[0];
+					int file = File(square) + direction[1];
+
+					while (rank >= 0 && rank < 8 && file >= 0 && file < 8) {
+						BETWEEN[square][Square(rank, file)] = passed;
+						passed |= Bit(Square(rank, file));
+
+						rank += direction[0];
+						file += direction[1];
+					}
+				}
+			}
+		}
+
+		for (int square = 0; square < 64; square++) {
+			// The edges of the board only matter to a slider if it is moving along them.
+			long edges = ((RANK_1 | RANK_8) & ~RANK_MASK[Rank(square)]) | ((FILE_A | FILE_H) & ~FILE_MASK[File(square)]);
+
+			ROOK_MASKS[square] = SlidingAttacks(square, 0, ROOK_DIRECTIONS) & ~edges;
+			ROOK_SHIFTS[square] = 64 - Count(ROOK_MASKS[square]);
+			ROOK_TABLE[square] = new long[1 << Count(ROOK_MASKS[square])];
+			FillTable(square, ROOK_MASKS[square], ROOK_MAGICS[square], ROOK_SHIFTS[square], ROOK_TABLE[square], ROOK_DIRECTIONS);
+
+			BISHOP_MASKS[square] = SlidingAttacks(square, 0, BISHOP_DIRECTIONS) & ~edges;
+			BISHOP_SHIFTS[square] = 64 - Count(BISHOP_MASKS[square]);
+			BISHOP_TABLE[square] = new long[1 << Count(BISHOP_MASKS[square])];
+			FillTable(square, BISHOP_MASKS[square], BISHOP_MAGICS[square], BISHOP_SHIFTS[square], BISHOP_TABLE[square], BISHOP_DIRECTIONS);
+		}
+
+		// Two squares on the same line each attack the rest of it on an empty board.
+		for (int from = 0; from < 64; from++) {
+			for (int to = 0; to < 64; to++) {
+				long bits = Bit(from) | Bit(to);
+
+				if ((RookAttacks(from, 0) & Bit(to)) != 0)
+					LINE[from][to] = (RookAttacks(from, 0) & RookAttacks(to, 0)) | bits;
+				else if ((BishopAttacks(from, 0) & Bit(to)) != 0)
+					LINE[from][to] = (BishopAttacks(from, 0) & BishopAttacks(to, 0)) | bits;
+			}
+		}
+	}
+
+	private Bitboard() {
+	}
+
+	static int Square(int _rank, int _file) {
+		return (_rank << 3) | _file;
+	}
+
+	static int Rank(int _square) {
+		return _square >>> 3;
+	}
+
+	static int File(int _square) {
+		return _square & 7;
+	}
+
+	static long Bit(int _square) {
+		return 1L << _square;
+	}
+
+	// Returns the index of the lowest square in the set.
+	static int First(long _set) {
+		return Long.numberOfTrailingZeros(_set);
+	}
+
+	static int Count(long _set) {
+		return Long.bitCount(_set);
+	}
+
+	// Returns all the squares attacked by a set of knights.
+	static long KnightAttacks(long _knights) {
+		long left1 = (_knights >>> 1) & NOT_FILE_H;
+		long left2 = (_knights >>> 2) & NOT_FILES_GH;
+		long right1 = (_knights << 1) & NOT_FILE_A;
+		long right2 = (_knights << 2) & NOT_FILES_AB;
+		long one = left1 | right1;
+		long two = left2 | right2;
+		return (one << 16) | (one >>> 16) | (two << 8) | (two >>> 8);
+	}
+
+	// Returns all the squares attacked by a set of kings.
+	static long KingAttacks(long _kings) {
+		long attacks = ((_kings << 1) & NOT_FILE_A) | ((_kings >>> 1) & NOT_FILE_H);
+		long row = _kings | attacks;
+		return attacks | (row << 8) | (row >>> 8);
+	}
+
+	// Returns all the squares attacked by a set of pawns of the specified colour.
+	static long PawnAttacks(long _pawns, int _colour) {
+		if (_colour == Resources.WHITE)
+			return ((_pawns << 7) & NOT_FILE_H) | ((_pawns << 9) & NOT_FILE_A);
+		else
+			return ((_pawns >>> 9) & NOT_FILE_H) | ((_pawns >>> 7) & NOT_FILE_A);
+	}
+
+	static long RookAttacks(int _square, long _occupied) {
+		return ROOK_TABLE[_square][(int) (((_occupied & ROOK_MASKS[_square]) * ROOK_MAGICS[_square]) >>> ROOK_SHIFTS[_square])];
+	}
+
+	static long BishopAttacks(int _square, long _occupied) {
+		return BISHOP_TABLE[_square][(int) (((_occupied & BISHOP_MASKS[_square]) * BISHOP_MAGICS[_square]) >>> BISHOP_SHIFTS[_square])];
+	}
+
+	static long QueenAttacks(int _square, long _occupied) {
+		return RookAttacks(_square, _occupied) | BishopAttacks(_square, _occupied);
+	}
+
+	// Works out the attacks for every subset of the mask the slow way and
+	// stores each one in the table entry the magic number maps it onto.
+	private static void FillTable(int _square, long _mask, long _magic, int _shift, long[] _table, int[][] _directions) {
+		// Enumerate every subset of the mask (the "carry-rippler" trick).
+		long blockers = 0;
+		do {
+			_table[(int) ((blockers * _magic) >>> _shift)] = SlidingAttacks(_square, blockers, _directions);
+			blockers = (blockers - _mask) & _mask;
+		} while (blockers != 0);
+	}
+
+	// Walks out from the square in each direction, stopping at the edge of
+	// the board or at the first occupied square, which is included as it
+	// may hold a piece that can be taken. This is only used to fill in the
+	// magic tables.
+	private static long SlidingAttacks(int _square, long _occupied, int[][] _directions) {
+		long attacks = 0;
+
+		for (int[] direction : _directions) {
+			int rank = Rank(_square) + direction[0];
+			int file = File(_square) + direction[1];
+
+			while (rank >= 0 && rank < 8 && file >= 0 && file < 8) {
+				long bit = Bit(Square(rank, file));
+				attacks |= bit;
+
+				if ((_occupied & bit) != 0)
+					break;
+
+				rank += direction[0];
+				file += direction[1];
+			}
+		}
+
+		return attacks;
+	}
+}
@@ -128,6 +128,27 @@ class ConsoleInterface implements IOInterface {
 						System.out.println("can only quit while engine is thinking\n");
 					} else if (inputLine.equals("moves")) 
 						DisplayLegalMoves();
+					else if (inputLine.startsWith("perft ") || inputLine.startsWith("divide ") || inputLine.startsWith("perfthash ")) {
+						String report = PerftReport(inputLine);
+						if (report != null)
+							System.out.println(report + "\n");
+						else
+							System.out.println(inputLine + " is not a legal command or move\n");
+					}
+					else if (inputLine.startsWith("hash ")) {
+						try {
+							int megabytes = Integer.parseInt(inputLine.substring(5).trim());
+							if (megabytes < 1)
+								throw new NumberFormatException();
+
+							int used = engine.SetHashSize(megabytes);
+							if (used < megabytes)
+								System.out.println("there is only memory for " + used + "MB");
+							System.out.println("search results will be kept in " + used + "MB\n");
+						} catch (NumberFormatException _exception) {
+							System.out.println(inputLine + " is not a legal command or move\n");
+						}
+					}
 					else if (inputLine.equals("material")) {
 						System.out.println("white material: " + engine.GetCurrentPosition().totalMaterial[Resources.WHITE] + ", black material: " + engine.GetCurrentPosition().totalMaterial[Resources.BLACK]);
 					} else if (inputLine.equals("board")) 
@@ -152,6 +173,11 @@ class ConsoleInterface implements IOInterface {
 						System.out.println("board     to display the board");
 						System.out.println("sheet     to display the scoresheet");
 						System.out.println("material  to display the material tally");
+						System.out.println("perft n   to count the positions n moves ahead (perft n t to use t threads)");
+						System.out.println("divide n  to count the positions n moves ahead after each move");
+						System.out.println("perfthash m");
+						System.out.println("          to keep perft counts in m megabytes (0 for none)");
+						System.out.println("hash m    to keep search results in m megabytes");
 						System.out.println("terse     to display level one debugging");
 						System.out.println("normal    to display level two debugging");
 						System.out.println("verbose   to display level three debugging");
@@ -226,6 +252,58 @@ class ConsoleInterface implements IOInterface {
 			System.out.println("stalemate: 1/2 - 1/2");
 	}
 
+	// The size in megabytes of the table perft keeps its counts in, or 0 
+	// if they aren't kept.
+	private static int perftHashSize = 0;
+
+	// More threads than this wouldn't make perft any faster on any machine
+	// it is likely to be run on.
+	private static final int MAX_PERFT_THREADS = 256;
+
+	/**
+	 * This method runs a 'perft n' or 'divide n' command on the current 
+	 * <code>Position</code> and returns the result, or null if the
+	 * command doesn't give a depth. The number of threads to use may
+	 * follow the depth, otherwise one is used for each processor. It
+	 * also handles the 'perfthash m' command, which sets the size of the 
+	 * table perft uses.
+	 */
+	static String PerftReport(Engine _engine, String _command) {
+		String[] words = _command.trim().split(" +");
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		try {
+			if (words[0].equals("perfthash")) {
+				int megabytes = (words.length == 2) ? Integer.parseInt(words[1]) : -1;
+				if (megabytes < 0)
+					return null;
+
+				perftHashSize = (megabytes == 0) ? 0 : Resources.AffordableMegabytes(megabytes);
+				if (perftHashSize == 0)
+					return "perft counts will not be kept";
+
+				return ((perftHashSize < megabytes) ? "there is only memory for " + perftHashSize + "MB\n" : "") + "perft counts will be kept in " + perftHashSize + "MB";
+			}
+
+			if (words.length == 3)
+				threads = Integer.parseInt(words[2]);
+
+			int depth = (words.length >= 2) ? Integer.parseInt(words[1]) : -1;
+
+			if ((words.length == 2 || words.length == 3) && depth >= 0 && threads > 0 && threads <= MAX_PERFT_THREADS) {
+				Perft.Table table = (perftHashSize == 0) ? null : new Perft.Table(perftHashSize);
+				return new Perft(_engine.theBoard, table).Report(depth, words[0].equals("divide"), threads);
+			}
+		} catch (NumberFormatException _exception) {
+		}
+
+		return null;
+	}
+
+	private String PerftReport(String _command) {
+		return PerftReport(engine, _command);
+	}
+
 	final static String frame = "    +-+-+-+-+-+-+-+-+";
 	
 	/**
@@ -23,15 +23,69 @@ import java.util.*;
 
 class Engine extends Thread {
 
-	// Constants to specify the search depth.
+	// Constants to specify the search depth. The engine searches to a fixed
+	// depth unless it has a clock to play to.
 	private final int LOOK_AHEAD_PLY = 5;
-	private final int MAXIMUM_DEPTH = 6;
+	private static final int MAX_DEPTH = 32;
 
 	private int requestedDepth;
-	private int maxSearchDepth;
+
+	// The search can never go deeper than this many ply from the top level.
+	private static final int MAX_PLY = 64;
+
+	// Each ply of the search hands out its moves from its own picker, so no
+	// lists need to be created while searching.
+	private final MovePicker[] movePickers = new MovePicker[MAX_PLY];
+
+	// How often each quiet move, indexed by [colour][from][to], has caused a
+	// cut-off anywhere in the search, weighted towards cut-offs further from 
+	// the leaves (the history heuristic). The pickers try the quiet moves with
+	// the best history first. The entries are kept below HISTORY_LIMIT.
+	private final int[][][] history = new int[2][64][64];
+	private static final int HISTORY_LIMIT = 1 << 24;
+
+	// The quiet moves searched so far at each ply of the search, which lose 
+	// some of their history if a later move causes a cut-off.
+	private final int[][] quietsSearched = new int[MAX_PLY][Position.MAX_MOVES];
+
+	// The history of each quiet move following each earlier move, indexed by
+	// [earlier piece index * 64 + square moved to][piece index * 64 + square 
+	// moved to], where the piece index is given by PieceIndex. The same table
+	// is used for the move made one ply earlier and the one made two ply 
+	// earlier (continuation history).
+	private final int[][] continuationHistory = new int[12 * 64][12 * 64];
+
+	// The quiet move that last caused a cut-off straight after each move, 
+	// indexed in the same way as the continuation history (counter moves).
+	private final int[] counterMoves = new int[12 * 64];
+
+	// The move made at each ply of the search, two places along, so that the
+	// first two places hold the last two moves made in the game. 
+	private final int[] previousMoves = new int[MAX_PLY + 2];
+
+	// The best line of play found by the last iteration of the search, one 
+	// move for each ply, ending with PackedMove.NONE. The next iteration 
+	// tries these moves first while it is following the same line.
+	private final int[] principalVariation = new int[MAX_PLY + 1];
+
+	// The best line found so far from the position at each ply of the search,
+	// ending with PackedMove.NONE. When a move becomes the best at a ply, the
+	// line for the ply is that move followed by the line for the ply after.
+	private final int[][] lines = new int[MAX_PLY][MAX_PLY + 1];
+
+	// Decides how long to think about each move when playing to a clock.
+	final TimeManager timeManager = new TimeManager();
+
+	// The results of searching positions, kept from one search to the next.
+	static final int DEFAULT_HASH_SIZE = 16;
+	private TranspositionTable transpositionTable = new TranspositionTable(DEFAULT_HASH_SIZE);
 
 	// This Position object represents the board in its current state.
 	Position theBoard = new Position();
+
+	// The search makes its moves on its own copy of the board, so the board
+	// itself is left alone while the engine is thinking.
+	private Position searchBoard;
 	
 	// Debugging levels.
 	static final int OFF = 0;
@@ -46,6 +100,9 @@ class Engine extends Thread {
 	private boolean interrupted = false;
 	private boolean exiting = false;
 
+	// This boolean is set when the time for the current move has run out.
+	private boolean outOfTime = false;
+
 	// This boolean indicates whether the moves from the starting position should be shuffled before
 	// being evaluated.
 	boolean random = true;
@@ -67,8 +124,8 @@ class Engine extends Thread {
 	// This field represents the moves to analyse...
 	private ArrayList<Move> immediateMoves;
 	
-	// ...and the resulting best move.
-	private SearchResult bestMove;
+	// ...and the resulting best move, packed as described in PackedMove.
+	private int bestMove;
 	
 	// Wakes up the Engine thread to do the processing.
 	public void StartThinking(Boolean _analysis_only) {
@@ -138,7 +195,7 @@ class Engine extends Thread {
 		// Choose one of the moves and make it.
 		Move chosenMove = null;
 		for (Move move : immediateMoves) {
-			if (move.result.evaluation == bestMove.evaluation) {
+			if (move.code == bestMove) {
 				if (analysis_only == false) {
 					theBoard.MakeMove(move);
 					theBoard.SetLastDestination(move);
@@ -172,21 +229,52 @@ class Engine extends Thread {
 		if (random)
 			Shuffle();
 
-		// This loop implements iterative deepening. The facility to look 
-		// further ahead  if the last move was a take is disabled until the 
-		// final search depth is reached.
-		for (int index = LOOK_AHEAD_PLY - 1; index > 0; index--) {
-			requestedDepth = LOOK_AHEAD_PLY - index;
-			maxSearchDepth = requestedDepth;
-			bestMove = BuildTree(requestedDepth, -Resources.INFINITY - 1, +Resources.INFINITY + 1);
-			SortMoves();
+		searchBoard = new Position(theBoard);
+
+		transpositionTable.NewSearch();
+		principalVariation[0] = PackedMove.NONE;
+		for (MovePicker movePicker : movePickers)
+			movePicker.ClearKillers();
+
+		// The history from the last search is still a good guide, but the 
+		// cut-offs found by this one should soon outweigh it.
+		AgeHistory(2);
+
+		ArrayList<Move> scoreSheet = theBoard.getScoreSheet().getArrayList();
+		for (int index = 0; index < 2; index++) {
+			int moveIndex = scoreSheet.size() - 2 + index;
+			previousMoves[index] = (moveIndex >= 0) ? scoreSheet.get(moveIndex).code : PackedMove.NONE;
 		}
 
-		// For the last search, enable the extra look-ahead based on moves 
-		// that take a piece.
-		requestedDepth = LOOK_AHEAD_PLY;
-		maxSearchDepth = MAXIMUM_DEPTH;
-		bestMove = BuildTree(requestedDepth, -Resources.INFINITY - 1, +Resources.INFINITY + 1);
+		timeManager.Start(theBoard.getMovesMade());
+		outOfTime = false;
+
+		// This loop implements iterative deepening. Each search orders the
+		// moves for the next, which is one ply deeper. Playing to a clock, the
+		// search keeps getting deeper until the time manager stops it, and a
+		// search cut short when the time runs out is thrown away in favour of
+		// the last one to finish.
+		int depthLimit = timeManager.Timed() ? MAX_DEPTH : LOOK_AHEAD_PLY;
+		long lastIteration = 0;
+		long iterationBefore = 0;
+		int score = 0;
+
+		for (requestedDepth = 1; requestedDepth <= depthLimit; requestedDepth++) {
+			long iterationStart = timeManager.Elapsed();
+			score = AspirationSearch(requestedDepth, score);
+			if (outOfTime)
+				break;
+
+			bestMove = lines[0][0];
+			SavePrincipalVariation();
+
+			iterationBefore = lastIteration;
+			lastIteration = timeManager.Elapsed() - iterationStart;
+			if (requestedDepth == depthLimit || !timeManager.Deepen(lastIteration, iterationBefore))
+				break;
+
+			SortMoves();
+		}
 
 		endTime = (double) System.currentTimeMillis();
 		endTime -= startTime;
@@ -198,155 +286,508 @@ class Engine extends Thread {
 		return endTime;
 	}
 
-	// This function builds a tree of legal moves to the depth of the specified ply. It returns the
-	// position evaluations on its way back down the tree after constructing it.
-	private SearchResult BuildTree(int _ply, int _alpha, int _beta) {
-		// If the interface is exiting, stop thinking.
-		if (interrupted)
-			return new SearchResult(0, 0);
-
-		if (theBoard.getGameState() == Move.GameState.BLACK_CHECKMATED) 
-			return new SearchResult(+Resources.INFINITY, 0);
-		if (theBoard.getGameState() == Move.GameState.WHITE_CHECKMATED)
-			return new SearchResult(-Resources.INFINITY, 0);
-		if (theBoard.getGameState() == Move.GameState.WHITE_STALEMATED || theBoard.getGameState() == Move.GameState.BLACK_STALEMATED)
-			return new SearchResult(0, 0);
-
-		if ((_ply < 1 && ((Move) theBoard.getScoreSheet().peek()).pieceTaken == null) || _ply <= (requestedDepth - maxSearchDepth)) {
-			// This is a leaf node and the last move didn't involve a take so set the evaluation to 
-			// the figure arrived at by the Evaluate function.
-			return new SearchResult(theBoard.Evaluate(), 0);
+	// The iterations shallower than this are searched with a full window.
+	private static final int ASPIRATION_DEPTH = 3;
+
+	// How far either side of the last iteration's score the window starts, 
+	// and how much it is widened by the first time the score falls outside
+	// it. Each time after that the amount is doubled.
+	private static final int ASPIRATION_WINDOW = 25;
+
+	// Searches the immediate moves to the depth given, expecting the score to
+	// be close to the one found by the last iteration, and returns the score.
+	// The search starts with a narrow window around the last score, which cuts
+	// off far more of the tree than a full window. If the score turns out to 
+	// be outside the window, the search is repeated with the window widened 
+	// on that side.
+	private int AspirationSearch(int _depth, int _lastScore) {
+		if (_depth < ASPIRATION_DEPTH)
+			return SearchRoot(_depth, -Resources.INFINITY - 1, +Resources.INFINITY + 1);
+
+		int delta = ASPIRATION_WINDOW;
+		int alpha = Math.max(_lastScore - delta, -Resources.INFINITY - 1);
+		int beta = Math.min(_lastScore + delta, +Resources.INFINITY + 1);
+
+		while (true) {
+			int score = SearchRoot(_depth, alpha, beta);
+			if (outOfTime || interrupted)
+				return score;
+
+			if (score <= alpha)
+				alpha = Math.max(score - delta, -Resources.INFINITY - 1);
+			else if (score >= beta) {
+				beta = Math.min(score + delta, +Resources.INFINITY + 1);
+
+				// The move that scored too highly is the best so far, so it
+				// is searched first next time.
+				MoveToFront(lines[0][0]);
+			} else
+				return score;
+
+			delta *= 2;
 		}
-		
-		// This is not a leaf node, so loop through all the possible moves from this position.
-		_ply--;
+	}
 
-		ArrayList<Move> legalMoves;
+	// Moves the immediate move given to the front of the list.
+	private void MoveToFront(int _move) {
+		for (int index = 1; index < immediateMoves.size(); index++) {
+			if (immediateMoves.get(index).code == _move) {
+				immediateMoves.add(0, immediateMoves.remove(index));
+				break;
+			}
+		}
+	}
 
-		if (_ply == requestedDepth - 1)
-			legalMoves = immediateMoves;
-		else
-			legalMoves = theBoard.DetermineLegalMoves();
+	// Searches each of the immediate moves, in the order they have been sorted
+	// into, to the depth given, and returns the best score. The score of each
+	// move is also stored in its Move, so the moves can be sorted for the next
+	// search, and the best line is left in the line for the top level. 
+	// 
+	// Scores are from the point of view of the player to move (negamax). Only
+	// the first move is searched with the full window. Each later move is just
+	// tested against the best score so far with an empty window, and only if
+	// it turns out to be better is it searched again properly (principal 
+	// variation search).
+	private int SearchRoot(int _depth, int _alpha, int _beta) {
+		lines[0][0] = PackedMove.NONE;
+
+		// A mate at the top level is no moves away (see Search).
+		if (immediateMoves.isEmpty())
+			return searchBoard.InCheck(searchBoard.getWhoseTurn()) ? -Resources.INFINITY : 0;
+
+		int best = -Resources.INFINITY - 1;
+
+		for (int index = 0; index < immediateMoves.size(); index++) {
+			Move move = immediateMoves.get(index);
+
+			rootMoveTotal = 1;
+			movesCalculated++;
+			previousMoves[2] = move.code;
+			searchBoard.MakeMove(move.code);
+
+			int score;
+			if (index == 0)
+				score = -Search(_depth - 1, 1, -_beta, -_alpha, move.code == principalVariation[0]);
+			else {
+				score = -Search(_depth - 1, 1, -_alpha - 1, -_alpha, false);
+				if (score > _alpha && score < _beta)
+					score = -Search(_depth - 1, 1, -_beta, -_alpha, false);
+			}
 
-		movesCalculated += legalMoves.size();
-		rootMoveTotal += legalMoves.size();
-		
-		SearchResult result = null;
+			if (outOfTime) {
+				searchBoard.UnmakeMove(move.code);
+				break;
+			}
 
-		if (theBoard.getWhoseTurn() == Resources.WHITE) {
-			result = new SearchResult(_alpha, 0);
-			for (Move move : legalMoves) {
-				if (_ply == requestedDepth - 1) rootMoveTotal = 0;
-				theBoard.MakeMove(move);
-				move.result = BuildTree(_ply, _alpha, _beta);
+			move.score = score;
 
-				if (move.result.evaluation > _alpha) {
+			if (score > best) {
+				best = score;
+				if (score > _alpha) {
 					// This is a new best move.
-					_alpha = move.result.evaluation;
-					result.evaluation = _alpha;
-					result.searchDepth = move.result.searchDepth + 1;
-					result.leadsTo = move;
-					
-					if (_ply == requestedDepth - 1 && debug != 0) {
-						// This is the top level, so make this the new best move the 
-						// player can make so far.
-						double endTime = (double) System.currentTimeMillis();
-						endTime -= startTime;
-						AnimatsChess.userInterface.Thinking(result.searchDepth, _alpha, endTime , rootMoveTotal, Thinking(move));
+					_alpha = score;
+					UpdateLine(0, move.code);
+				}
+
+				if (debug != 0)
+					ReportThinking(move, score);
+			} else if (debug == NORMAL)
+				ReportThinking(move, score);
+
+			searchBoard.UnmakeMove(move.code);
+
+			if (_alpha >= _beta)
+				break;
+		}
+
+		return best;
+	}
+
+	// Returns the score of the position on the search board for the player to
+	// move, searching the depth given below it, or less if it can tell that a
+	// move is worse than the window allows for. The ply is the number of moves
+	// made from the top level, and the last argument is true while those 
+	// moves follow the principal variation. Below the top level the moves are
+	// handled as packed ints (see PackedMove) rather than Move objects.
+	private int Search(int _depth, int _ply, int _alpha, int _beta, boolean _onPrincipalVariation) {
+		lines[_ply][0] = PackedMove.NONE;
+
+		// If the interface is exiting or the time is up, stop thinking.
+		if (Stopping())
+			return 0;
+
+		// This is a leaf node, so only the moves that take a piece are searched
+		// from it, until the position is quiet enough to evaluate.
+		if (_depth < 1)
+			return Quiescence(_ply, _alpha, _beta);
+
+		int principalMove = _onPrincipalVariation ? principalVariation[_ply] : PackedMove.NONE;
+
+		// If this position has already been searched at least as deeply, the 
+		// result can be used again as long as it is exact, or is a limit that
+		// falls outside the window. Otherwise its best move is tried first.
+		long key = searchBoard.getKey();
+		long entry = transpositionTable.Probe(key);
+		int hashMove = principalMove;
+
+		if (entry != 0) {
+			int evaluation = TranspositionTable.Evaluation(entry, _ply);
+			int bound = TranspositionTable.Bound(entry);
+
+			if (TranspositionTable.Depth(entry) >= _depth
+					&& (bound == TranspositionTable.EXACT
+						|| (bound == TranspositionTable.LOWER_BOUND && evaluation >= _beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && evaluation <= _alpha)))
+				return evaluation;
+
+			if (hashMove == PackedMove.NONE)
+				hashMove = TranspositionTable.Move(entry);
+		}
+
+		int alpha = _alpha;
+
+		// The moves come from the picker for this ply, which only generates
+		// them as they are needed. The quiet moves are ordered by how well
+		// they have done, overall and after the last two moves made.
+		int colour = searchBoard.getWhoseTurn();
+		int lastMove = ContinuationIndex(previousMoves[_ply + 1], 1 - colour);
+		int moveBefore = ContinuationIndex(previousMoves[_ply], colour);
+
+		MovePicker movePicker = movePickers[_ply];
+		movePicker.Start(searchBoard, hashMove, (lastMove < 0) ? PackedMove.NONE : counterMoves[lastMove],
+				(lastMove < 0) ? null : continuationHistory[lastMove], (moveBefore < 0) ? null : continuationHistory[moveBefore]);
+
+		// The moves haven't been checked for legality yet. This is left until
+		// each move is about to be searched, so the moves after a cut-off are 
+		// never checked at all.
+		long pinned = searchBoard.PinnedPieces(searchBoard.getWhoseTurn());
+		boolean inCheck = searchBoard.InCheck(searchBoard.getWhoseTurn());
+
+		// If none of the moves turn out to be legal, the game is over.
+		int legalMoves = 0;
+
+		int best = -Resources.INFINITY - 1;
+		int bestMove = PackedMove.NONE;
+		int quietCount = 0;
+
+		for (int move = movePicker.Next(); move != PackedMove.NONE; move = movePicker.Next()) {
+			if (!searchBoard.IsLegal(move, pinned, inCheck))
+				continue;
+
+			legalMoves++;
+
+			movesCalculated++;
+			rootMoveTotal++;
+			previousMoves[_ply + 2] = move;
+			searchBoard.MakeMove(move);
+
+			int score;
+			if (legalMoves == 1)
+				score = -Search(_depth - 1, _ply + 1, -_beta, -_alpha, move == principalMove);
+			else {
+				score = -Search(_depth - 1, _ply + 1, -_alpha - 1, -_alpha, false);
+				if (score > _alpha && score < _beta)
+					score = -Search(_depth - 1, _ply + 1, -_beta, -_alpha, false);
+			}
+
+			searchBoard.UnmakeMove(move);
+
+			if (outOfTime)
+				return 0;
+
+			if (score > best) {
+				best = score;
+				bestMove = move;
+
+				if (score > _alpha) {
+					_alpha = score;
+					UpdateLine(_ply, move);
+
+					if (_alpha >= _beta) {
+						if (!PackedMove.IsCapture(move)) {
+							movePicker.AddKiller(move);
+							UpdateHistory(move, quietsSearched[_ply], quietCount, _depth, lastMove, moveBefore);
+						}
+						break;
 					}
-				} else if (_ply == requestedDepth - 1 && debug == NORMAL) {
-					double endTime = (double) System.currentTimeMillis();
-					endTime -= startTime;
-					AnimatsChess.userInterface.Thinking(result.searchDepth, move.result.evaluation, endTime , rootMoveTotal, Thinking(move));
 				}
-				
-				theBoard.UndoMove();
-				
-				if (_alpha >= _beta) 
-					break;
 			}
-			return result;
+
+			if (!PackedMove.IsCapture(move))
+				quietsSearched[_ply][quietCount++] = move;
+		}
+
+		// Being mated sooner is worse, so a mate is scored by how many moves
+		// from the top level it is reached in, and the quickest mate is found.
+		if (legalMoves == 0)
+			return inCheck ? -Resources.INFINITY + _ply : 0;
+
+		// A search that was stopped part way through can't be relied on.
+		if (!interrupted) {
+			int bound = TranspositionTable.EXACT;
+			if (best <= alpha) {
+				bound = TranspositionTable.UPPER_BOUND;
+				bestMove = PackedMove.NONE;
+			} else if (best >= _beta)
+				bound = TranspositionTable.LOWER_BOUND;
+
+			transpositionTable.Store(key, bestMove, best, bound, _depth, _ply);
+		}
+
+		return best;
+	}
+
+	// The value of the piece taken, beyond what the player to move has 
+	// already, that a take must be able to bring them to reach the window.
+	private static final int DELTA_MARGIN = 200;
+
+	// Searches only the moves that take a piece from a position at the end of
+	// the main search, until there are none worth making, so no position is
+	// evaluated part way through an exchange. The player to move needn't take
+	// anything, so the evaluation of the position itself is the least they 
+	// can get ("standing pat"), unless they are in check, when every move out 
+	// of check is searched instead. Takes that lose material in the exchange
+	// that follows aren't searched, nor are those that can't bring the player
+	// into the window even by winning the piece taken outright (delta pruning).
+	private int Quiescence(int _ply, int _alpha, int _beta) {
+		lines[_ply][0] = PackedMove.NONE;
+
+		if (Stopping())
+			return 0;
+
+		if (_ply >= MAX_PLY - 1)
+			return Evaluate();
+
+		boolean inCheck = searchBoard.InCheck(searchBoard.getWhoseTurn());
+		MovePicker movePicker = movePickers[_ply];
+		int best;
+
+		if (inCheck) {
+			best = -Resources.INFINITY + _ply;
+			movePicker.Start(searchBoard, PackedMove.NONE);
 		} else {
-			result = new SearchResult(_beta, 0);
-			for (Move move : legalMoves) {
-				if (_ply == requestedDepth - 1) rootMoveTotal = 0;
-				theBoard.MakeMove(move);
-				move.result = BuildTree(_ply, _alpha, _beta);
+			best = Evaluate();
+			if (best >= _beta)
+				return best;
 
-				if (move.result.evaluation < _beta) {
-					// This is a new best move.
-					_beta = move.result.evaluation;
-					result.evaluation = _beta;
-					result.searchDepth = move.result.searchDepth + 1;
-					result.leadsTo = move;
-
-					if (_ply == requestedDepth - 1 && debug != 0) {
-						// This is the top level, so make this the new best move the 
-						// player can make so far.
-						double endTime = (double) System.currentTimeMillis();
-						endTime -= startTime;
-						AnimatsChess.userInterface.Thinking(result.searchDepth, _beta, endTime , rootMoveTotal, Thinking(move));
-					}
+			movePicker.StartCaptures(searchBoard);
+		}
+
+		_alpha = Math.max(_alpha, best);
+
+		long pinned = searchBoard.PinnedPieces(searchBoard.getWhoseTurn());
+
+		for (int move = movePicker.Next(); move != PackedMove.NONE; move = movePicker.Next()) {
+			if (!searchBoard.IsLegal(move, pinned, inCheck))
+				continue;
 
-				} else if (_ply == requestedDepth - 1 && debug == NORMAL) {
-					double endTime = (double) System.currentTimeMillis();
-					endTime -= startTime;
-					AnimatsChess.userInterface.Thinking(result.searchDepth, move.result.evaluation, endTime , rootMoveTotal, Thinking(move));
+			if (!inCheck) {
+				int gain = Position.PieceValue(PackedMove.Taken(move)) + DELTA_MARGIN;
+				if (PackedMove.Promotion(move) != 0)
+					gain += Position.PieceValue(PackedMove.Promotion(move)) - Position.PieceValue(Position.Piece.PAWN);
+
+				if (best + gain <= _alpha)
+					continue;
+			}
+
+			movesCalculated++;
+			searchBoard.MakeMove(move);
+			int score = -Quiescence(_ply + 1, -_beta, -_alpha);
+			searchBoard.UnmakeMove(move);
+
+			if (score > best) {
+				best = score;
+				if (score > _alpha) {
+					_alpha = score;
+					if (_alpha >= _beta)
+						break;
 				}
-				
-				theBoard.UndoMove();
-				if (_alpha >= _beta)
-					break;
 			}
-			return result;
 		}
+
+		return best;
+	}
+
+	// Returns the evaluation of the position on the search board for the 
+	// player to move. Position.Evaluate is always from white's point of view.
+	private int Evaluate() {
+		int evaluation = searchBoard.Evaluate();
+		return (searchBoard.getWhoseTurn() == Resources.WHITE) ? evaluation : -evaluation;
+	}
+
+	// Rewards the quiet move that caused a cut-off, and takes as much away 
+	// from the quiet moves searched before it at the same position, as they
+	// should have been tried after it. Cut-offs further from the leaves save
+	// more of the search, so they count for more. The same is done to the
+	// continuation history after the last move and the one before, given as
+	// returned by ContinuationIndex, and the move becomes the counter move to
+	// the last move.
+	private void UpdateHistory(int _move, int[] _quietsSearched, int _quietCount, int _depth, int _lastMove, int _moveBefore) {
+		int colour = searchBoard.getWhoseTurn();
+		int[][] colourHistory = history[colour];
+		int[] continuation1 = (_lastMove < 0) ? null : continuationHistory[_lastMove];
+		int[] continuation2 = (_moveBefore < 0) ? null : continuationHistory[_moveBefore];
+		int bonus = _depth * _depth;
+		boolean full = false;
+
+		for (int index = 0; index <= _quietCount; index++) {
+			int quiet = (index == _quietCount) ? _move : _quietsSearched[index];
+			int change = (index == _quietCount) ? bonus : -bonus;
+			int continuation = ContinuationIndex(quiet, colour);
+
+			full |= Math.abs(colourHistory[PackedMove.From(quiet)][PackedMove.To(quiet)] += change) >= HISTORY_LIMIT;
+			if (continuation1 != null)
+				full |= Math.abs(continuation1[continuation] += change) >= HISTORY_LIMIT;
+			if (continuation2 != null)
+				full |= Math.abs(continuation2[continuation] += change) >= HISTORY_LIMIT;
+		}
+
+		if (full)
+			AgeHistory(2);
+
+		if (_lastMove >= 0)
+			counterMoves[_lastMove] = _move;
+	}
+
+	// Divides all the history, including the continuation history, by the 
+	// amount given.
+	private void AgeHistory(int _divisor) {
+		for (int[][] colourHistory : history) {
+			for (int[] fromHistory : colourHistory) {
+				for (int to = 0; to < 64; to++)
+					fromHistory[to] /= _divisor;
+			}
+		}
+
+		for (int[] continuation : continuationHistory) {
+			for (int index = 0; index < continuation.length; index++)
+				continuation[index] /= _divisor;
+		}
+	}
+
+	// Returns the index of a piece of the colour and type given, from 0 to 11,
+	// for the tables indexed by the piece moved.
+	static int PieceIndex(int _colour, int _type) {
+		return _colour * 6 + _type - 1;
 	}
 
+	// Returns the index into the continuation history and counter moves for a
+	// move made by the colour given, or -1 for no move.
+	private static int ContinuationIndex(int _move, int _colour) {
+		if (_move == PackedMove.NONE)
+			return -1;
+
+		return PieceIndex(_colour, PackedMove.Piece(_move)) * 64 + PackedMove.To(_move);
+	}
+
+	// Makes the line for the ply the move given followed by the line for the
+	// ply after.
+	private void UpdateLine(int _ply, int _move) {
+		int[] line = lines[_ply];
+		int[] rest = lines[_ply + 1];
+
+		line[0] = _move;
+		int index = 0;
+		do {
+			line[index + 1] = rest[index];
+		} while (rest[index++] != PackedMove.NONE);
+	}
+
+	// Returns true if the search must stop, because the interface is exiting
+	// or the time for the move has run out. The clock is only read every so
+	// many moves, and not during the first iteration, so that there is always
+	// a move to make.
+	private boolean Stopping() {
+		if (!outOfTime && requestedDepth > 1 && (movesCalculated & 1023) == 0)
+			outOfTime = timeManager.HardLimitReached();
+
+		return interrupted || outOfTime;
+	}
+
+	// Copies the line of play found by the last search, so the next one can
+	// try it first.
+	private void SavePrincipalVariation() {
+		int depth = 0;
+		do {
+			principalVariation[depth] = lines[0][depth];
+		} while (lines[0][depth++] != PackedMove.NONE);
+	}
+
+	// Tells the interface the score of the supplied immediate move, which must
+	// have just been searched and not yet undone, and the line it leads to.
+	// The interface is given evaluations from white's point of view.
+	private void ReportThinking(Move _move, int _score) {
+		double endTime = (double) System.currentTimeMillis();
+		endTime -= startTime;
+
+		int evaluation = (theBoard.getWhoseTurn() == Resources.WHITE) ? _score : -_score;
+		AnimatsChess.userInterface.Thinking(requestedDepth, evaluation, endTime, rootMoveTotal, Thinking(_move));
+	}
+
+	// Describes the line of play starting with the supplied immediate move, which
+	// must have just been made on the board.
 	private String Thinking(Move _firstMove) {
 		StringBuilder principalVariation = new StringBuilder();
 		
 		if (_firstMove.madeBy == Resources.BLACK)
 			principalVariation.append(Integer.toString(_firstMove.MoveNumber()) + "...");
-		
-		Move move = _firstMove;
-		
-		do {
-			principalVariation.append(" ");
-			if (move.madeBy == Resources.WHITE) {
-				principalVariation.append(Integer.toString(move.MoveNumber()));
-				principalVariation.append(". ");
-			}
-			
-			principalVariation.append(move.Algebraic());
-			
-			move = move.result.leadsTo;
-		} while (move != null);
+
+		_firstMove.stateAfterMove = searchBoard.DetermineState();
+		AppendMove(principalVariation, _firstMove);
+		AppendLine(principalVariation, lines[1], 0);
 		
 		return principalVariation.toString();
+	}
+
+	// The rest of the line is only held as packed moves, so each one is turned 
+	// into a Move from the position it is made in, then made on the board to 
+	// reach the position for the next, and undone once the line is described.
+	private void AppendLine(StringBuilder _principalVariation, int[] _line, int _index) {
+		if (_line[_index] == PackedMove.NONE)
+			return;
+
+		Move move = null;
+		for (Move legalMove : searchBoard.DetermineLegalMoves()) {
+			if (legalMove.code == _line[_index])
+				move = legalMove;
+		}
+
+		searchBoard.MakeMove(_line[_index]);
+		move.stateAfterMove = searchBoard.DetermineState();
+
+		AppendMove(_principalVariation, move);
+		AppendLine(_principalVariation, _line, _index + 1);
+
+		searchBoard.UnmakeMove(_line[_index]);
+	}
+
+	private void AppendMove(StringBuilder _principalVariation, Move _move) {
+		_principalVariation.append(" ");
+		if (_move.madeBy == Resources.WHITE) {
+			_principalVariation.append(Integer.toString(_move.MoveNumber()));
+			_principalVariation.append(". ");
+		}
 		
+		_principalVariation.append(_move.Algebraic());
 	}
+
 	private void Shuffle() {
 		Collections.shuffle(immediateMoves);
 	}
 
 	/**
 	 * This method sorts the immediate moves that can be made from this position into an order based on their
-	 * evaluations. This is done to speed up alpha-beta pruning.
+	 * scores, best first. This is done to speed up alpha-beta pruning.
 	 */
 	private void SortMoves() {
 		if (immediateMoves != null) {
-			if (theBoard.getWhoseTurn() == Resources.BLACK)
-				Collections.sort(immediateMoves);
-			else
-				// For the white player, higher evaluations are better so sort the list
-				// in a highest to lowest sort order.
-				Collections.sort(immediateMoves, Collections.reverseOrder());
+			Collections.sort(immediateMoves);
 			
 			if (debug == VERBOSE) {
 				System.out.println("----------------------------");
 				
 				for (Move move : immediateMoves)
-					System.out.println(move.Algebraic() + " " + move.result.evaluation);
+					System.out.println(move.Algebraic() + " " + move.score);
 				
 				System.out.println("----------------------------");
 			}
@@ -364,9 +805,23 @@ class Engine extends Thread {
 		return null;
 	}
 
-	// This method just passes the call on to the Position object.
+	// Replaces the transposition table with an empty one of the size given,
+	// or as near it as there is memory for, and returns the size used. This
+	// must not be called while the engine is thinking.
+	public int SetHashSize(int _megabytes) {
+		int megabytes = Resources.AffordableMegabytes(_megabytes);
+
+		// The old table is let go first, so the two needn't fit in together.
+		transpositionTable = null;
+		transpositionTable = new TranspositionTable(megabytes);
+		return megabytes;
+	}
+
+	// Sets the board up for a new game, which the results of earlier 
+	// searches don't help with.
 	public void Reset() {
 		theBoard.Reset();
+		transpositionTable.Clear();
 		DetermineImmediateMoves();
 	}
 
@@ -384,6 +839,10 @@ class Engine extends Thread {
 
 	public Engine(String _name) {
 		super(_name);
+
+		for (int index = 0; index < MAX_PLY; index++)
+			movePickers[index] = new MovePicker(history);
+
 		DetermineImmediateMoves();
 	}
 
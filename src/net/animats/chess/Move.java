@@ -45,10 +45,10 @@ class Move implements Comparable<Move> {
 	int newRank;
 	int newFile;
 
-	// This information is set if another piece of the same type can move
-	// into the same square as this move.
-	boolean disambiguationOnRank;
-	boolean disambiguationOnFile;
+	// The squares of any other pieces of the same type that can move into
+	// the same square as this move (see Position.Rivals). The notation for
+	// the move works out from these how to show which piece is moving.
+	long rivals;
 
 	Position.Piece pieceTaken;
 	Position.Piece pieceMoved;
@@ -57,40 +57,46 @@ class Move implements Comparable<Move> {
 	boolean pawnPromoted = false;
 	boolean enPassant = false;
 
-	SearchResult result;
+	// The score the search gave the move, from the point of view of the 
+	// player making it.
+	int score;
 	
 	int moveNumber;
 	int madeBy;
 
 	int castling = NOT_CASTLING;
 
+	// The same move packed into an int, which is what Position uses to make 
+	// and undo it (see PackedMove).
+	final int code;
+
 	public String toString() {
 		return (Algebraic() + " (" + Resources.englishColour[pieceMoved.colour] + " " + pieceMoved.FullName() + " on " +
 				fileLetter[oldFile] + rankNumber[oldRank] + ((pieceTaken == null) ? " to " : " takes ") +
 				fileLetter[newFile] + rankNumber[newRank] + ((pawnPromoted) ? (", promotes to " + promotionName[promotionPiece -2]) : "") + ")");
 	}
 
-	Move (int _oldRank, int _oldFile, int _newRank, int _newFile, int _promotionPiece, Position _theBoard) {
-		oldRank = _oldRank;
-		oldFile = _oldFile;
-		newRank = _newRank;
-		newFile = _newFile;
+	Move (int _code, Position _theBoard) {
+		code = _code;
+		oldRank = Bitboard.Rank(PackedMove.From(_code));
+		oldFile = Bitboard.File(PackedMove.From(_code));
+		newRank = Bitboard.Rank(PackedMove.To(_code));
+		newFile = Bitboard.File(PackedMove.To(_code));
 		pieceMoved = _theBoard.getPieceAt(oldRank, oldFile);
 		pieceTaken = _theBoard.getPieceAt(newRank, newFile);
-		moveNumber = _theBoard.getScoreSheet().size() + 1;
+		moveNumber = _theBoard.getMovesMade() + 1;
 		madeBy = _theBoard.getWhoseTurn();
+		rivals = _theBoard.Rivals(_code);
 	
-		if (pieceMoved instanceof Position.Pawn) {
-			if (oldFile != newFile && pieceTaken == null) {
-				// Must be an en passant take, set the 
-				// pieceTaken to the pawn to be taken.
-				pieceTaken = _theBoard.getPieceAt(_oldRank, _newFile);
-				enPassant = true;
-			} else if (newRank == 0 || newRank == 7) {
-				// Check for a promotion and act accordingly
-				promotionPiece = _promotionPiece;
-				pawnPromoted = true;
-			}
+		if (PackedMove.IsEnPassant(_code)) {
+			// Set the pieceTaken to the pawn to be taken.
+			pieceTaken = _theBoard.getPieceAt(oldRank, newFile);
+			enPassant = true;
+		} else if (PackedMove.Promotion(_code) != 0) {
+			promotionPiece = PackedMove.Promotion(_code);
+			pawnPromoted = true;
+		} else if (PackedMove.IsCastling(_code)) {
+			castling = (newFile == 2) ? QUEEN_SIDE : KING_SIDE;
 		}
 	}
 
@@ -137,6 +143,12 @@ class Move implements Comparable<Move> {
 			else 
 				move.append("Q");
 
+			// If another piece of this type could move to the same square, 
+			// show the rank or file this piece moves from. The rank is used
+			// if the other piece is on the same file.
+			boolean disambiguationOnRank = (rivals & Bitboard.FILE_MASK[oldFile]) != 0;
+			boolean disambiguationOnFile = (rivals & ~Bitboard.FILE_MASK[oldFile]) != 0;
+
 			if (disambiguationOnRank) {
 				move.append(rankNumber[oldRank]);
 			}
@@ -177,10 +189,11 @@ class Move implements Comparable<Move> {
 	}
 
 	/**
-	 * This method is part of the comparable interface and is used to sort the legalMove vector.
+	 * This method is part of the comparable interface and is used to sort the legalMove vector,
+	 * highest score first.
 	 */
 	public int compareTo(Move _move) {
-		return (result.evaluation - ((Move) _move).result.evaluation);
+		return (_move.score - score);
 	}
 	
 	/* Returns a displayable version of the current move number
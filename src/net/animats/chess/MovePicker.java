@@ -0,0 +1,254 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+/**
+ * This class hands out the moves from a position one at a time, in the order
+ * most likely to cause an alpha-beta cut-off, and only generates each group
+ * of moves when the moves before it have been used up. The order is:
+ *
+ *   the hash move, the best move found here by an earlier search
+ *   moves that take a piece, most valuable victim and least valuable attacker first
+ *   the killer moves, quiet moves that caused a cut-off at the same ply elsewhere
+ *   the counter move, the quiet move that last caused a cut-off after the same last move
+ *   the rest of the quiet moves, those that have caused the most cut-offs first
+ *   moves that take a piece but lose material (see <code>Position.StaticExchange</code>)
+ *
+ * The quiescence search only wants the moves that take a piece without losing
+ * material, so the picker can be started to hand out just those.
+ *
+ * The moves are pseudo-legal (see <code>Position.GenerateCaptures</code> and
+ * <code>Position.GenerateQuiets</code>) so each must still be checked before
+ * it is searched. The search keeps one of these for each ply, so the killer
+ * moves belong to the ply, while the history of the quiet moves is shared by
+ * them all. How well a quiet move has done is the sum of its history and its
+ * continuation history after each of the last two moves made (see
+ * <code>Engine</code>).
+ */
+final class MovePicker {
+	// The stages the picker works through.
+	private static final int HASH_MOVE = 0;
+	private static final int GENERATE_CAPTURES = 1;
+	private static final int CAPTURES = 2;
+	private static final int KILLERS = 3;
+	private static final int COUNTER_MOVE = 4;
+	private static final int GENERATE_QUIETS = 5;
+	private static final int QUIETS = 6;
+	private static final int BAD_CAPTURES = 7;
+	private static final int DONE = 8;
+
+	private final int[] moves = new int[Position.MAX_MOVES];
+	private final int[] scores = new int[Position.MAX_MOVES];
+	private final int[] killers = new int[2];
+	private final int[] badCaptures = new int[Position.MAX_MOVES];
+
+	// The search's record of how well each quiet move has done, indexed by
+	// [colour][from][to].
+	private final int[][][] history;
+
+	private Position position;
+	private int hashMove;
+	private int counterMove;
+
+	// The continuation history after the last move and the one before it, 
+	// indexed by Engine.PieceIndex * 64 + the square moved to, or null if 
+	// there is no such move.
+	private int[] continuation1;
+	private int[] continuation2;
+	private int stage;
+	private int moveCount;
+	private int next;
+	private int badCaptureCount;
+	private boolean capturesOnly;
+
+	MovePicker(int[][][] _history) {
+		history = _history;
+	}
+
+	// Starts handing out the moves from the position given. The hash move is
+	// ignored if it is PackedMove.NONE or can't be made from this position.
+	void Start(Position _position, int _hashMove) {
+		Start(_position, _hashMove, PackedMove.NONE, null, null);
+	}
+
+	// As above, with the counter move to the last move made, and the
+	// continuation history after the last two moves.
+	void Start(Position _position, int _hashMove, int _counterMove, int[] _continuation1, int[] _continuation2) {
+		position = _position;
+		hashMove = _hashMove;
+		counterMove = _counterMove;
+		continuation1 = _continuation1;
+		continuation2 = _continuation2;
+		stage = HASH_MOVE;
+		moveCount = 0;
+		next = 0;
+		badCaptureCount = 0;
+		capturesOnly = false;
+	}
+
+	// Starts handing out only the moves from the position given that take a
+	// piece, leaving out those that lose material.
+	void StartCaptures(Position _position) {
+		Start(_position, PackedMove.NONE);
+		stage = GENERATE_CAPTURES;
+		capturesOnly = true;
+	}
+
+	// Returns the next move, or PackedMove.NONE once there are no more.
+	int Next() {
+		while (true) {
+			switch (stage) {
+				case HASH_MOVE:
+					stage = GENERATE_CAPTURES;
+					if (hashMove != PackedMove.NONE && position.IsPseudoLegal(hashMove))
+						return hashMove;
+					break;
+
+				case GENERATE_CAPTURES:
+					moveCount = position.GenerateCaptures(moves, 0);
+					next = 0;
+
+					// Most valuable victim first, then least valuable attacker.
+					for (int index = 0; index < moveCount; index++)
+						scores[index] = PackedMove.Taken(moves[index]) * 8 - PackedMove.Piece(moves[index]);
+
+					stage = CAPTURES;
+					break;
+
+				case CAPTURES:
+					if (next == moveCount) {
+						stage = capturesOnly ? DONE : KILLERS;
+						next = 0;
+						break;
+					}
+
+					// Only one capture is picked out at a time, as the rest may
+					// never be needed.
+					int move = TakeBest();
+					if (move == hashMove)
+						break;
+
+					// A piece can't lose material by taking a more valuable one,
+					// so only the others need the exchange worked out.
+					if (PackedMove.Taken(move) < PackedMove.Piece(move) && position.StaticExchange(move) < 0) {
+						if (!capturesOnly)
+							badCaptures[badCaptureCount++] = move;
+						break;
+					}
+
+					return move;
+
+				case KILLERS:
+					if (next == killers.length) {
+						stage = COUNTER_MOVE;
+						break;
+					}
+
+					int killer = killers[next++];
+					if (killer != PackedMove.NONE && killer != hashMove && position.IsPseudoLegal(killer))
+						return killer;
+					break;
+
+				case COUNTER_MOVE:
+					stage = GENERATE_QUIETS;
+					if (counterMove != PackedMove.NONE && counterMove != hashMove && counterMove != killers[0] 
+							&& counterMove != killers[1] && position.IsPseudoLegal(counterMove))
+						return counterMove;
+					break;
+
+				case GENERATE_QUIETS:
+					moveCount = position.GenerateQuiets(moves, 0);
+					next = 0;
+
+					int colour = position.getWhoseTurn();
+					int[][] colourHistory = history[colour];
+					for (int index = 0; index < moveCount; index++) {
+						int quiet = moves[index];
+						scores[index] = colourHistory[PackedMove.From(quiet)][PackedMove.To(quiet)];
+
+						int continuation = Engine.PieceIndex(colour, PackedMove.Piece(quiet)) * 64 + PackedMove.To(quiet);
+						if (continuation1 != null)
+							scores[index] += continuation1[continuation];
+						if (continuation2 != null)
+							scores[index] += continuation2[continuation];
+					}
+
+					stage = QUIETS;
+					break;
+
+				case QUIETS:
+					if (next == moveCount) {
+						stage = BAD_CAPTURES;
+						next = 0;
+						break;
+					}
+
+					int quiet = TakeBest();
+					if (quiet != hashMove && quiet != killers[0] && quiet != killers[1] && quiet != counterMove)
+						return quiet;
+					break;
+
+				case BAD_CAPTURES:
+					if (next == badCaptureCount) {
+						stage = DONE;
+						break;
+					}
+
+					return badCaptures[next++];
+
+				default:
+					return PackedMove.NONE;
+			}
+		}
+	}
+
+	// Records a quiet move that caused a cut-off, so it can be tried early
+	// in the other positions at this ply.
+	void AddKiller(int _move) {
+		if (killers[0] != _move) {
+			killers[1] = killers[0];
+			killers[0] = _move;
+		}
+	}
+
+	void ClearKillers() {
+		killers[0] = PackedMove.NONE;
+		killers[1] = PackedMove.NONE;
+	}
+
+	// Swaps the highest scoring of the remaining moves into the next place
+	// and returns it. If several score the same the first is taken, so quiet
+	// moves that have no history yet keep the order they were generated in.
+	private int TakeBest() {
+		int best = next;
+		for (int index = next + 1; index < moveCount; index++) {
+			if (scores[index] > scores[best])
+				best = index;
+		}
+
+		int move = moves[best];
+		moves[best] = moves[next];
+		scores[best] = scores[next];
+		moves[next] = move;
+		next++;
+
+		return move;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+/**
+ * This class packs everything needed to make and undo a move into a single
+ * int, so the search can generate and pass around moves without creating
+ * objects. The <code>Move</code> class is built from one of these when a
+ * move has to be shown to the player. The bits are laid out as follows:
+ *
+ *   bits  0 - 5   the square moved from (see <code>Bitboard</code>)
+ *   bits  6 - 11  the square moved to
+ *   bits 12 - 14  the type of piece moved, Piece.PAWN to Piece.KING
+ *   bits 15 - 17  the type of piece taken, or 0
+ *   bits 18 - 20  the type of piece a pawn is promoted to, or 0
+ *   bits 21 - 23  the flags below
+ *
+ * As no move can have the same square for both ends, 0 is never a move.
+ */
+final class PackedMove {
+	static final int NONE = 0;
+
+	static final int EN_PASSANT = 1 << 21;
+	static final int CASTLING = 1 << 22;
+	static final int DOUBLE_PUSH = 1 << 23;
+
+	private PackedMove() {
+	}
+
+	static int Create(int _from, int _to, int _piece, int _taken, int _promotion, int _flags) {
+		return _from | (_to << 6) | (_piece << 12) | (_taken << 15) | (_promotion << 18) | _flags;
+	}
+
+	static int From(int _move) {
+		return _move & 0x3F;
+	}
+
+	static int To(int _move) {
+		return (_move >>> 6) & 0x3F;
+	}
+
+	static int Piece(int _move) {
+		return (_move >>> 12) & 0x7;
+	}
+
+	static int Taken(int _move) {
+		return (_move >>> 15) & 0x7;
+	}
+
+	static int Promotion(int _move) {
+		return (_move >>> 18) & 0x7;
+	}
+
+	static boolean IsCapture(int _move) {
+		return Taken(_move) != 0;
+	}
+
+	static boolean IsEnPassant(int _move) {
+		return (_move & EN_PASSANT) != 0;
+	}
+
+	static boolean IsCastling(int _move) {
+		return (_move & CASTLING) != 0;
+	}
+
+	static boolean IsDoublePush(int _move) {
+		return (_move & DOUBLE_PUSH) != 0;
+	}
+}
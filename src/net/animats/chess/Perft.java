@@ -0,0 +1,220 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class counts the positions that can be reached from a position by
+ * every possible sequence of legal moves of a given length ("perft"). The
+ * counts are well known for many positions, so they show whether the move
+ * generator is right, and the time taken shows how fast it is. Dividing
+ * the count up by the first move made narrows down where any error is.
+ *
+ * The count can be shared between threads, each of which works on its own
+ * copy of the position. The counts below positions can also be kept in a
+ * table, so positions reached by more than one sequence of moves are only
+ * counted once.
+ */
+final class Perft {
+	private final Position position;
+
+	// Each ply generates its moves into its own buffer.
+	private int[][] moveBuffers = new int[0][];
+
+	// The counts already made, or null if they aren't being kept.
+	private final Table table;
+
+	Perft(Position _position, Table _table) {
+		position = _position;
+		table = _table;
+	}
+
+	// Returns the number of positions the depth given below the position.
+	// The position is left as it was found.
+	long Count(int _depth) {
+		if (_depth == 0)
+			return 1;
+
+		if (moveBuffers.length <= _depth) {
+			moveBuffers = new int[_depth + 1][];
+			for (int index = 0; index <= _depth; index++)
+				moveBuffers[index] = new int[Position.MAX_MOVES];
+		}
+
+		return CountMoves(_depth);
+	}
+
+	private long CountMoves(int _depth) {
+		// The table is looked in before the moves are generated, so a count
+		// that is already known costs nothing more.
+		if (table != null && _depth > 1) {
+			long nodes = table.Get(position.getKey(), _depth);
+			if (nodes >= 0)
+				return nodes;
+		}
+
+		int[] moves = moveBuffers[_depth];
+		int moveCount = position.GenerateMoves(moves);
+
+		// The moves are all legal, so at the last ply they don't need to be
+		// made to count the positions they lead to.
+		if (_depth == 1)
+			return moveCount;
+
+		long nodes = 0;
+		for (int index = 0; index < moveCount; index++) {
+			position.MakeMove(moves[index]);
+			nodes += CountMoves(_depth - 1);
+			position.UnmakeMove(moves[index]);
+		}
+
+		if (table != null)
+			table.Put(position.getKey(), _depth, nodes);
+
+		return nodes;
+	}
+
+	// Counts the positions the depth given below the position and describes
+	// the result, one line at a time. If divide is set the count below each
+	// legal move is given first. The work is shared between the number of 
+	// threads given.
+	String Report(int _depth, boolean _divide, int _threads) {
+		StringBuilder report = new StringBuilder();
+		long startTime = System.currentTimeMillis();
+		long nodes = 0;
+
+		if (_depth > 0) {
+			// Each move from the position is counted by a separate task, each 
+			// of which splits its own moves between further tasks.
+			ForkJoinPool pool = new ForkJoinPool(_threads);
+			ArrayList<Move> moves = position.DetermineLegalMoves();
+			ArrayList<CountTask> tasks = new ArrayList<CountTask>();
+
+			for (Move move : moves) {
+				CountTask task = new CountTask(position, move.code, _depth - 1, table);
+				pool.execute(task);
+				tasks.add(task);
+			}
+
+			for (int index = 0; index < moves.size(); index++) {
+				long moveNodes = tasks.get(index).join();
+
+				nodes += moveNodes;
+				if (_divide)
+					report.append(moves.get(index).AsCommand() + " " + moveNodes + "\n");
+			}
+
+			pool.shutdown();
+		} else
+			nodes = 1;
+
+		long timeTaken = System.currentTimeMillis() - startTime;
+		long nodesPerSecond = (timeTaken != 0) ? nodes * 1000 / timeTaken : nodes;
+
+		report.append("perft " + _depth + " = " + nodes + " (" + timeTaken + "ms, " + nodesPerSecond + " nodes/second)");
+
+		return report.toString();
+	}
+
+	// Positions closer to the end of the count than this are counted by a 
+	// single task, as below this splitting the work costs more than it saves.
+	private static final int SPLIT_DEPTH = 3;
+
+	// Counts the positions the depth given below the position reached by a
+	// move, on a copy of the position it is made from.
+	private static final class CountTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final Position position;
+		private final int depth;
+		private final Table table;
+
+		CountTask(Position _position, int _move, int _depth, Table _table) {
+			position = new Position(_position);
+			position.MakeMove(_move);
+			depth = _depth;
+			table = _table;
+		}
+
+		protected Long compute() {
+			if (depth < SPLIT_DEPTH)
+				return new Perft(position, table).Count(depth);
+
+			int[] moves = new int[Position.MAX_MOVES];
+			int moveCount = position.GenerateMoves(moves);
+			ArrayList<CountTask> tasks = new ArrayList<CountTask>();
+
+			for (int index = 0; index < moveCount; index++)
+				tasks.add(new CountTask(position, moves[index], depth - 1, table));
+
+			long nodes = 0;
+			for (CountTask task : invokeAll(tasks))
+				nodes += task.join();
+
+			return nodes;
+		}
+	}
+
+	/**
+	 * This class holds the counts below positions, indexed by the position's
+	 * key and the depth counted to. It has a fixed number of entries, and a
+	 * new count simply replaces whatever was in its entry.
+	 *
+	 * The table is shared between threads without locking. Each entry is two
+	 * longs, the count and depth packed together and that xored with the key.
+	 * If two threads write an entry at once and the halves get mixed up, the
+	 * key no longer matches and the entry is ignored.
+	 */
+	static final class Table {
+		private final long[] entries;
+		private final int mask;
+
+		Table(int _megabytes) {
+			// The number of entries is a power of two, so the index can be
+			// taken from the low bits of the key.
+			long size = Math.max(1, ((long) _megabytes << 20) / 16);
+			int entryCount = Integer.highestOneBit((int) Math.min(size, 1 << 28));
+
+			entries = new long[entryCount * 2];
+			mask = entryCount - 1;
+		}
+
+		// Returns the count for the key and depth, or -1 if it isn't known.
+		long Get(long _key, int _depth) {
+			int index = ((int) _key & mask) * 2;
+			long data = entries[index + 1];
+
+			if ((entries[index] ^ data) != _key || (data & 0x3F) != _depth)
+				return -1;
+
+			return data >>> 6;
+		}
+
+		void Put(long _key, int _depth, long _nodes) {
+			int index = ((int) _key & mask) * 2;
+			long data = (_nodes << 6) | _depth;
+
+			entries[index + 1] = data;
+			entries[index] = _key ^ data;
+		}
+	}
+}
@@ -21,17 +21,28 @@ package net.animats.chess;
 
 import java.util.*;
 
-// This class represents a game position. It is contains an 8 x 8 
-// two-dimensional array of Piece objects. Each element object holds a 
-// pointer to the piece on it, or null if it is vacant.
+// This class represents a game position. It contains an array of the 64
+// squares, each holding a code for the piece on it (see PIECES), or 0 if it
+// is vacant. Alongside the array it keeps a set of bitboards, one for each
+// type of piece of each colour, so that move generation, attack detection
+// and evaluation can work on whole sets of squares at once.
 
 class Position {
-	// Store a reference to a rook, knight, bishop and king for the purpose 
-    // of determining if a player is in check.
-	private Piece[] moveablePiece = new Piece[4];
-
-	// This is the array that represents the board.
-	private Piece[][] squares = new Piece[8][8];
+	// This is the array that represents the board, indexed by square (see 
+	// Bitboard). Each piece is held as its colour * 8 + its type. The state
+	// of the position is all held in primitives like this, so it can be
+	// copied quickly for another thread to work on.
+	private byte[] board = new byte[64];
+
+	// These are the bitboards that represent the board. They are indexed by
+	// [colour][Piece.PAWN ... Piece.KING] (index 0 is unused) and must always
+	// be kept in step with the squares array by using PutPiece and RemovePiece.
+	private long[][] pieceBoards = new long[2][7];
+
+	// The squares occupied by each colour, indexed by Resources.BLACK and 
+	// Resources.WHITE, and by either colour.
+	private long[] colourBoards = new long[2];
+	private long occupied;
 
 	// This is a list of all the moves that lead to this position.
 	private MoveStack scoreSheet;
@@ -44,19 +55,91 @@ class Position {
     // whose turn it is to move from this position.
 	private int whoseTurn;
 
+	// The number of moves made since a piece was last taken or a pawn last
+	// moved, for the fifty move rule.
 	private int movesSinceLastTake = 0;
 
 	boolean[] castled = new boolean[2];
 
-	// Store the current position of each king to make determining whether 
-    // either player is in check faster as this is done regularly.
-	public int kingRank[] = new int[2];
-	public int kingFile[] = new int[2];
+	// The square a pawn can move to in order to take en passant, or 
+	// NO_SQUARE if the last move was not a pawn moving two squares.
+	static final int NO_SQUARE = -1;
+	private int enPassantSquare = NO_SQUARE;
+
+	// The castling moves each player still has the right to make, as a 
+	// bitmask of the constants below. A right is lost for good once the king
+	// or that rook moves, or the rook is taken.
+	static final int WHITE_KING_SIDE = 1;
+	static final int WHITE_QUEEN_SIDE = 2;
+	static final int BLACK_KING_SIDE = 4;
+	static final int BLACK_QUEEN_SIDE = 8;
+	private int castlingRights;
+
+	// The rights that are indexed by Resources.BLACK and Resources.WHITE.
+	private static final int[] KING_SIDE_RIGHT = { BLACK_KING_SIDE, WHITE_KING_SIDE };
+	private static final int[] QUEEN_SIDE_RIGHT = { BLACK_QUEEN_SIDE, WHITE_QUEEN_SIDE };
+
+	// The rights that are kept when a piece moves from or to each square.
+	// Only the squares the kings and rooks start on take any away.
+	private static final int[] CASTLING_KEPT = new int[64];
+
+	static {
+		Arrays.fill(CASTLING_KEPT, WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+
+		CASTLING_KEPT[Bitboard.Square(0, 0)] &= ~WHITE_QUEEN_SIDE;
+		CASTLING_KEPT[Bitboard.Square(0, 4)] &= ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE);
+		CASTLING_KEPT[Bitboard.Square(0, 7)] &= ~WHITE_KING_SIDE;
+		CASTLING_KEPT[Bitboard.Square(7, 0)] &= ~BLACK_QUEEN_SIDE;
+		CASTLING_KEPT[Bitboard.Square(7, 4)] &= ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+		CASTLING_KEPT[Bitboard.Square(7, 7)] &= ~BLACK_KING_SIDE;
+	}
+
+	// The squares of the pieces that haven't moved yet in the game.
+	private long unmovedPieces;
+
+	// The Zobrist key of this position (see Zobrist), which is updated by
+	// MakeMove(int) as each move is made.
+	private long key;
+
+	// The number of moves made to reach this position, including any moves 
+	// made while searching that are not on the score sheet.
+	private int movesMade = 0;
+
+	// What MakeMove(int) needs to remember to undo each move, indexed by
+	// movesMade at the time the move was made, less historyStart. The key
+	// and unmoved pieces before the move are kept as they are, and the rest
+	// is packed into an int: the piece taken (as colour * 8 + type, or 0),
+	// and the castling rights, en passant square (plus one, so none is 0)
+	// and movesSinceLastTake before the move. The piece moved and any
+	// promotion are in the move.
+	private static final int HISTORY_SIZE = 512;
+	private int historyStart = 0;
+	private int[] undoStates;
+	private long[] undoKeys;
+	private long[] undoUnmoved;
+
+	private static final int UNDO_TAKEN_SHIFT = 0;
+	private static final int UNDO_CASTLING_SHIFT = 4;
+	private static final int UNDO_EN_PASSANT_SHIFT = 8;
+	private static final int UNDO_CLOCK_SHIFT = 15;
+
+	// No position has more legal moves than this.
+	static final int MAX_MOVES = 256;
+
+	// Somewhere to generate moves into before they are checked for legality.
+	// It is only made when first needed (see ScratchMoves), as many copies
+	// of a position never need it.
+	private int[] scratchMoves;
 
 	// Store the total value of each player's pieces for each given position 
     // to allow the position to be evaluated.
 	int totalMaterial[] = new int[2];
 	
+	// The sum of the piece-square values (see PIECE_SQUARE) of each player's
+	// pieces, kept up to date by PutPiece and RemovePiece in the same way 
+	// as totalMaterial so the evaluation doesn't have to scan the board.
+	int pieceSquareTotal[] = new int[2];
+
 	// This modifier is used to multiply any penalties to make them push the 
     // evaluation in the right direction: up for black (to white's advantage), 
     // down for white (to black's advantage).
@@ -82,14 +165,29 @@ class Position {
 
 	public void setWhoseTurn(int _side) {
 		whoseTurn = _side;
+		key = ComputeKey();
 	}
 	
 	public int getMovesSinceLastTake() {
 		return movesSinceLastTake;
 	}
+
+	public long getKey() {
+		return key;
+	}
+
+	public int getMovesMade() {
+		return movesMade;
+	}
 	
 	public Piece getPieceAt(int _rank, int _file) {
-		return squares[_rank][_file];
+		return PieceOn(Bitboard.Square(_rank, _file));
+	}
+
+	// Returns the piece on the square, or null if it is empty.
+	private Piece PieceOn(int _square) {
+		int code = board[_square];
+		return (code == 0) ? null : PIECES[code >>> 3][code & 7];
 	}
 	
 	boolean IsLastDestination(int _rank, int _file) {
@@ -116,89 +214,447 @@ class Position {
 	}
 
 	private void UpdateResult() {
+		move.stateAfterMove = DetermineState();
+	}
+
+	// Works out whether the player to move is in check, checkmated or stalemated.
+	Move.GameState DetermineState() {
 		if (InCheck(whoseTurn) == true) {
 			if (CanMove() == false) {
 				if (whoseTurn == Resources.BLACK)
-					move.stateAfterMove = Move.GameState.BLACK_CHECKMATED;
+					return Move.GameState.BLACK_CHECKMATED;
 				else
-					move.stateAfterMove = Move.GameState.WHITE_CHECKMATED;
+					return Move.GameState.WHITE_CHECKMATED;
 			} else {
 				if (whoseTurn == Resources.BLACK)
-					move.stateAfterMove = Move.GameState.BLACK_IN_CHECK;
+					return Move.GameState.BLACK_IN_CHECK;
 				else
-					move.stateAfterMove = Move.GameState.WHITE_IN_CHECK;
+					return Move.GameState.WHITE_IN_CHECK;
 			}
 		} else {
 			if (CanMove() == false) {
 				if (whoseTurn == Resources.BLACK)
-					move.stateAfterMove = Move.GameState.BLACK_STALEMATED;
+					return Move.GameState.BLACK_STALEMATED;
 				else
-					move.stateAfterMove = Move.GameState.WHITE_STALEMATED;
+					return Move.GameState.WHITE_STALEMATED;
 			} else
-				move.stateAfterMove = Move.GameState.IN_PROGRESS;
+				return Move.GameState.IN_PROGRESS;
 		}
 	}
 		
 	/**
 	 * Returns true if a legal move can be made from this position, false if not.
 	 */
-	private boolean CanMove() {
-		// This method uses a skeleton version of the code from DetermineLegalMoves to find if the
-		// player has any legal moves they can make.
-		for (int rank = 0; rank < 8; rank++) {
-			for (int file = 0; file < 8; file++) {
-				if (squares[rank][file] != null && squares[rank][file].colour == whoseTurn) {
-					ArrayList<Move> singlePieceMoves = squares[rank][file].Moves(this, rank, file);
-					if (singlePieceMoves.size() != 0) {
-						return true;
-					}
-				}
+	boolean CanMove() {
+		// The legal moves are generated without trying any of them, so there
+		// is little to gain from stopping at the first one.
+		return GenerateMoves(ScratchMoves()) != 0;
+	}
+
+	private int[] ScratchMoves() {
+		if (scratchMoves == null)
+			scratchMoves = new int[MAX_MOVES];
+
+		return scratchMoves;
+	}
+
+	// Determines all the legal moves that the player to move can make from 
+	// this position, packed into ints as described in PackedMove. They are
+	// written into the supplied buffer, which must have room for MAX_MOVES,
+	// and the number of moves is returned.
+	//
+	// Rather than trying each move to see if it leaves the king in check, the 
+	// pieces checking the king and the pieces pinned to it are found once and
+	// each piece is only allowed to move to the squares that keep it safe.
+	public int GenerateMoves(int[] _buffer) {
+		int kingSquare = Bitboard.First(pieceBoards[whoseTurn][Piece.KING]);
+		long checkers = AttackersOf(kingSquare, whoseTurn, occupied);
+		long targets = ~0L;
+
+		if (checkers != 0) {
+			// Only the king can get out of a double check.
+			if ((checkers & (checkers - 1)) != 0)
+				return GenerateKingMoves(_buffer, 0, kingSquare, ~0L, true);
+
+			// Otherwise the checking piece must be taken or blocked.
+			int checker = Bitboard.First(checkers);
+			targets = checkers | Bitboard.BETWEEN[kingSquare][checker];
+		}
+
+		return GenerateMoves(_buffer, 0, PinnedPieces(whoseTurn), targets, true);
+	}
+
+	// Returns true if the supplied pseudo-legal move doesn't leave the king of
+	// the player to move in check. The caller supplies the pinned pieces (see
+	// PinnedPieces) and whether the player is in check, which only need to be
+	// worked out once for all the moves from a position. Most moves can then
+	// be accepted without trying them.
+	public boolean IsLegal(int _move, long _pinned, boolean _inCheck) {
+		// Castling moves are only generated if they are legal.
+		if (PackedMove.IsCastling(_move))
+			return true;
+
+		// Only a move by the king, a move out of check, a move by a pinned piece
+		// or an en passant take (which removes two pieces from the rank the pawns 
+		// are on) can expose the king to attack, so only those need to be tried.
+		if (_inCheck || PackedMove.Piece(_move) == Piece.KING || PackedMove.IsEnPassant(_move)
+				|| (_pinned & Bitboard.Bit(PackedMove.From(_move))) != 0)
+			return !MoveIntoCheck(_move);
+
+		return true;
+	}
+
+	// Returns true if the supplied move, which was generated from some other
+	// position, could be made by the player to move in this one, apart from 
+	// perhaps leaving their king in check. This is used to try moves that 
+	// were good elsewhere in the search before generating any moves here.
+	public boolean IsPseudoLegal(int _move) {
+		int from = PackedMove.From(_move);
+		int to = PackedMove.To(_move);
+		int piece = PackedMove.Piece(_move);
+
+		// Is the piece still there, and is the square it moves to either 
+		// empty or holding the piece it takes?
+		if ((pieceBoards[whoseTurn][piece] & Bitboard.Bit(from)) == 0)
+			return false;
+
+		if (PackedMove.IsCastling(_move)) {
+			int[] castlingMoves = ScratchMoves();
+			int count = GenerateCastling(castlingMoves, 0);
+			for (int index = 0; index < count; index++) {
+				if (castlingMoves[index] == _move)
+					return true;
 			}
+			return false;
 		}
 
-		return false;
+		if (PackedMove.IsEnPassant(_move))
+			return to == enPassantSquare && (Bitboard.PAWN_ATTACKS[whoseTurn][from] & Bitboard.Bit(to)) != 0;
+
+		if ((colourBoards[whoseTurn] & Bitboard.Bit(to)) != 0 || TypeAt(to) != PackedMove.Taken(_move))
+			return false;
+
+		if (piece != Piece.PAWN)
+			return (Attacks(piece, from, occupied) & Bitboard.Bit(to)) != 0;
+
+		// The squares a pawn moves between are fixed by the move, so only the
+		// squares it passes over or takes on need to be checked.
+		if (PackedMove.IsCapture(_move))
+			return (Bitboard.PAWN_ATTACKS[whoseTurn][from] & Bitboard.Bit(to)) != 0;
+
+		int forward = (whoseTurn == Resources.WHITE) ? 8 : -8;
+		if (PackedMove.IsDoublePush(_move))
+			return to - from == forward * 2 && (occupied & Bitboard.BETWEEN[from][to]) == 0;
+
+		return to - from == forward;
 	}
 
-	// Determines all the legal moves that the player to move can make from this position.
-	public ArrayList<Move> DetermineLegalMoves() {
-		ArrayList<Move> legalMoves = new ArrayList<Move>();
+	// Returns the pieces of the specified colour that stand alone between their
+	// king and an opposing rook, bishop or queen that could otherwise attack it.
+	public long PinnedPieces(int _colour) {
+		int kingSquare = Bitboard.First(pieceBoards[_colour][Piece.KING]);
+		long[] opposingPieces = pieceBoards[1 - _colour];
+		long pinned = 0;
 
-		Piece currentPiece;
-		for (int rank = 0; rank < 8; rank++) {
-			for (int file = 0; file < 8; file++) {
-				currentPiece = squares[rank][file];
-				if (currentPiece != null && currentPiece.colour == whoseTurn) {
-					ArrayList<Move> singlePieceMoves = currentPiece.Moves(this, rank, file);
-					if (singlePieceMoves.size() != 0) {
-						legalMoves.addAll(singlePieceMoves);
-					}
+		// Find the opposing sliders that would attack the king on an empty board.
+		long snipers = (Bitboard.RookAttacks(kingSquare, 0) & (opposingPieces[Piece.ROOK] | opposingPieces[Piece.QUEEN]))
+				| (Bitboard.BishopAttacks(kingSquare, 0) & (opposingPieces[Piece.BISHOP] | opposingPieces[Piece.QUEEN]));
+
+		while (snipers != 0) {
+			int sniper = Bitboard.First(snipers);
+			snipers &= snipers - 1;
+
+			long blockers = Bitboard.BETWEEN[kingSquare][sniper] & occupied;
+
+			// A single piece of the king's colour in the way is pinned.
+			if (blockers != 0 && (blockers & (blockers - 1)) == 0 && (blockers & colourBoards[_colour]) != 0)
+				pinned |= blockers;
+		}
+
+		return pinned;
+	}
+
+	// Writes the moves of the player to move into the buffer. Pieces other 
+	// than the king may only move to the target squares given, and pinned 
+	// pieces only along the line through them and their king. The king's own 
+	// moves and en passant takes are only checked for safety if legal is set.
+	private int GenerateMoves(int[] _buffer, int _count, long _pinned, long _targets, boolean _legal) {
+		long pawns = pieceBoards[whoseTurn][Piece.PAWN];
+		int kingSquare = Bitboard.First(pieceBoards[whoseTurn][Piece.KING]);
+
+		_count = GeneratePawnMoves(_buffer, _count, pawns & ~_pinned, _targets);
+
+		// Each pinned pawn has its own line to stay on.
+		long pinnedPawns = pawns & _pinned;
+		while (pinnedPawns != 0) {
+			int from = Bitboard.First(pinnedPawns);
+			pinnedPawns &= pinnedPawns - 1;
+
+			_count = GeneratePawnMoves(_buffer, _count, Bitboard.Bit(from), _targets & Bitboard.LINE[kingSquare][from]);
+		}
+
+		_count = GenerateEnPassant(_buffer, _count, _legal);
+		_count = GeneratePieceMoves(_buffer, _count, _pinned, _targets, kingSquare);
+		_count = GenerateKingMoves(_buffer, _count, kingSquare, ~0L, _legal);
+
+		return GenerateCastling(_buffer, _count);
+	}
+
+	// Writes the moves the player to move could make that take a piece, 
+	// without checking if they leave their king in check (pseudo-legal
+	// moves), into the buffer starting at the index given, and returns the
+	// index after the last move.
+	public int GenerateCaptures(int[] _buffer, int _count) {
+		long opposingPieces = colourBoards[1 - whoseTurn];
+		int kingSquare = Bitboard.First(pieceBoards[whoseTurn][Piece.KING]);
+
+		_count = GeneratePawnMoves(_buffer, _count, pieceBoards[whoseTurn][Piece.PAWN], opposingPieces);
+		_count = GenerateEnPassant(_buffer, _count, false);
+		_count = GeneratePieceMoves(_buffer, _count, 0, opposingPieces, kingSquare);
+
+		return GenerateKingMoves(_buffer, _count, kingSquare, opposingPieces, false);
+	}
+
+	// As for GenerateCaptures, but for the moves that don't take a piece.
+	// Unlike the other moves, castling moves are only generated if they are
+	// legal. Between them the two give every pseudo-legal move.
+	public int GenerateQuiets(int[] _buffer, int _count) {
+		long empty = ~occupied;
+		int kingSquare = Bitboard.First(pieceBoards[whoseTurn][Piece.KING]);
+
+		_count = GeneratePawnMoves(_buffer, _count, pieceBoards[whoseTurn][Piece.PAWN], empty);
+		_count = GeneratePieceMoves(_buffer, _count, 0, empty, kingSquare);
+		_count = GenerateKingMoves(_buffer, _count, kingSquare, empty, false);
+
+		return GenerateCastling(_buffer, _count);
+	}
+
+	// Knights, bishops, rooks and queens can move to any square they attack 
+	// that doesn't hold a piece of the same colour. Only moves to the target 
+	// squares are added, and pinned pieces must stay on the line through them
+	// and their king.
+	private int GeneratePieceMoves(int[] _buffer, int _count, long _pinned, long _targets, int _kingSquare) {
+		long ownPieces = colourBoards[whoseTurn];
+
+		for (int type = Piece.KNIGHT; type <= Piece.QUEEN; type++) {
+			long pieces = pieceBoards[whoseTurn][type];
+
+			while (pieces != 0) {
+				int from = Bitboard.First(pieces);
+				pieces &= pieces - 1;
+
+				long destinations = Attacks(type, from, occupied) & ~ownPieces & _targets;
+				if ((_pinned & Bitboard.Bit(from)) != 0)
+					destinations &= Bitboard.LINE[_kingSquare][from];
+
+				while (destinations != 0) {
+					int to = Bitboard.First(destinations);
+					destinations &= destinations - 1;
+
+					_buffer[_count++] = PackedMove.Create(from, to, type, TypeAt(to), 0, 0);
 				}
 			}
 		}
 
-		// Loop through all the moves looking for ambiguous references.
-		for (Move currentMove : legalMoves) {
-			if (!(currentMove.pieceMoved instanceof King) && 
-				!(currentMove.pieceMoved instanceof Pawn)) {
-				for (Move innerMove : legalMoves) {
-					if (innerMove != currentMove &&
-						innerMove.newRank == currentMove.newRank &&
-						innerMove.newFile == currentMove.newFile &&
-						innerMove.pieceMoved.type == currentMove.pieceMoved.type) {
-							// This move is an ambiguous move.
-							if (innerMove.oldFile != currentMove.oldFile) {
-								currentMove.disambiguationOnFile = true;
-							} else {
-								currentMove.disambiguationOnRank = true;
-							}
-					}
-				}
+		return _count;
+	}
+
+	// Adds the moves of the king of the player to move to the target squares.
+	// If legal is set the king may only move to squares that aren't attacked,
+	// which are worked out with the king taken off the board so it can't 
+	// shield a square behind it from a slider it is moving away from.
+	private int GenerateKingMoves(int[] _buffer, int _count, int _kingSquare, long _targets, boolean _legal) {
+		long destinations = Bitboard.KING_ATTACKS[_kingSquare] & ~colourBoards[whoseTurn] & _targets;
+		long occupiedWithoutKing = occupied ^ Bitboard.Bit(_kingSquare);
+
+		while (destinations != 0) {
+			int to = Bitboard.First(destinations);
+			destinations &= destinations - 1;
+
+			if (!_legal || AttackersOf(to, whoseTurn, occupiedWithoutKing) == 0)
+				_buffer[_count++] = PackedMove.Create(_kingSquare, to, Piece.KING, TypeAt(to), 0, 0);
+		}
+
+		return _count;
+	}
+
+	// Generates the moves of a set of pawns of the player to move at once by
+	// shifting the whole set, keeping only those that land on the target 
+	// squares. Note that the direction pawns move in is not affected by the
+	// orientation of the board when it is displayed.
+	private int GeneratePawnMoves(int[] _buffer, int _count, long _pawns, long _targets) {
+		long opposingPieces = colourBoards[1 - whoseTurn];
+		long empty = ~occupied;
+		long pushes, doublePushes, leftTakes, rightTakes;
+		int forward;
+
+		// A pawn can move two squares from its starting rank if both squares
+		// 'ahead' are empty, and can take diagonally ahead.
+		if (whoseTurn == Resources.WHITE) {
+			forward = 8;
+			pushes = (_pawns << 8) & empty;
+			doublePushes = ((pushes & Bitboard.RANK_MASK[2]) << 8) & empty;
+			leftTakes = (_pawns << 7) & Bitboard.NOT_FILE_H & opposingPieces;
+			rightTakes = (_pawns << 9) & Bitboard.NOT_FILE_A & opposingPieces;
+		} else {
+			forward = -8;
+			pushes = (_pawns >>> 8) & empty;
+			doublePushes = ((pushes & Bitboard.RANK_MASK[5]) >>> 8) & empty;
+			leftTakes = (_pawns >>> 9) & Bitboard.NOT_FILE_H & opposingPieces;
+			rightTakes = (_pawns >>> 7) & Bitboard.NOT_FILE_A & opposingPieces;
+		}
+
+		_count = AddPawnMoves(_buffer, _count, pushes & _targets, forward, 0);
+		_count = AddPawnMoves(_buffer, _count, doublePushes & _targets, forward * 2, PackedMove.DOUBLE_PUSH);
+		_count = AddPawnMoves(_buffer, _count, leftTakes & _targets, forward - 1, 0);
+		_count = AddPawnMoves(_buffer, _count, rightTakes & _targets, forward + 1, 0);
+
+		return _count;
+	}
+
+	// Adds any en passant takes the player to move can make. The pawns that 
+	// could take a pawn on the en passant square are the ones an opposing 
+	// pawn standing there would attack. As an en passant take removes two 
+	// pieces from the same rank, if legal is set each one is simply tried.
+	private int GenerateEnPassant(int[] _buffer, int _count, boolean _legal) {
+		if (enPassantSquare == NO_SQUARE)
+			return _count;
+
+		long takers = Bitboard.PAWN_ATTACKS[1 - whoseTurn][enPassantSquare] & pieceBoards[whoseTurn][Piece.PAWN];
+
+		while (takers != 0) {
+			int from = Bitboard.First(takers);
+			takers &= takers - 1;
+
+			int move = PackedMove.Create(from, enPassantSquare, Piece.PAWN, Piece.PAWN, 0, PackedMove.EN_PASSANT);
+			if (!_legal || !MoveIntoCheck(move))
+				_buffer[_count++] = move;
+		}
+
+		return _count;
+	}
+
+	// Adds a move for each destination of a set of pawn moves, where each 
+	// pawn has moved by the offset given. A pawn reaching the last rank can
+	// be promoted to a queen, rook, bishop or knight.
+	private int AddPawnMoves(int[] _buffer, int _count, long _destinations, int _offset, int _flags) {
+		while (_destinations != 0) {
+			int to = Bitboard.First(_destinations);
+			_destinations &= _destinations - 1;
+
+			int from = to - _offset;
+			int taken = TypeAt(to);
+
+			if (Bitboard.Rank(to) == 0 || Bitboard.Rank(to) == 7) {
+				for (int promotion = Piece.QUEEN; promotion >= Piece.KNIGHT; promotion--)
+					_buffer[_count++] = PackedMove.Create(from, to, Piece.PAWN, taken, promotion, _flags);
+			} else
+				_buffer[_count++] = PackedMove.Create(from, to, Piece.PAWN, taken, 0, _flags);
+		}
+
+		return _count;
+	}
+
+	// The squares between the king and each rook that must be empty before 
+	// castling, for the black and white king.
+	private static final long[] QUEEN_SIDE_GAP = { 0x0E00000000000000L, 0x000000000000000EL };
+	private static final long[] KING_SIDE_GAP = { 0x6000000000000000L, 0x0000000000000060L };
+
+	// Adds any castling moves the player to move can make. Unlike the other 
+	// moves these are only generated if they are legal.
+	private int GenerateCastling(int[] _buffer, int _count) {
+		// Both sides castle along their own back rank.
+		int rank = (whoseTurn == Resources.WHITE) ? 0 : 7;
+
+		// Has the king moved, or have both rooks?
+		if ((castlingRights & (KING_SIDE_RIGHT[whoseTurn] | QUEEN_SIDE_RIGHT[whoseTurn])) == 0 || InCheck(whoseTurn))
+			return _count;
+
+		// Is the queen-side rook still there unmoved?
+		if ((castlingRights & QUEEN_SIDE_RIGHT[whoseTurn]) != 0) {
+			// Are the squares in between empty? Are any of the squares the king
+			// passes through or lands on being attacked by the other player? The
+			// square next to the rook may be attacked as the king doesn't cross it.
+			if ((occupied & QUEEN_SIDE_GAP[whoseTurn]) == 0 &&
+				!SquareAttacked(Bitboard.Square(rank, 2), whoseTurn) &&
+				!SquareAttacked(Bitboard.Square(rank, 3), whoseTurn)) {
+				_buffer[_count++] = PackedMove.Create(Bitboard.Square(rank, 4), Bitboard.Square(rank, 2), Piece.KING, 0, 0, PackedMove.CASTLING);
+			}
+		}
+
+		// Is the king-side rook still there unmoved?
+		if ((castlingRights & KING_SIDE_RIGHT[whoseTurn]) != 0) {
+			if ((occupied & KING_SIDE_GAP[whoseTurn]) == 0 &&
+				!SquareAttacked(Bitboard.Square(rank, 5), whoseTurn) &&
+				!SquareAttacked(Bitboard.Square(rank, 6), whoseTurn)) {
+				_buffer[_count++] = PackedMove.Create(Bitboard.Square(rank, 4), Bitboard.Square(rank, 6), Piece.KING, 0, 0, PackedMove.CASTLING);
 			}
 		}
 
+		return _count;
+	}
+
+	// Returns the set of squares a piece of the specified type (other than a
+	// pawn) attacks from the square given.
+	private static long Attacks(int _type, int _square, long _occupied) {
+		switch (_type) {
+			case Piece.KNIGHT:
+				return Bitboard.KNIGHT_ATTACKS[_square];
+			case Piece.BISHOP:
+				return Bitboard.BishopAttacks(_square, _occupied);
+			case Piece.ROOK:
+				return Bitboard.RookAttacks(_square, _occupied);
+			case Piece.QUEEN:
+				return Bitboard.QueenAttacks(_square, _occupied);
+			default:
+				return Bitboard.KING_ATTACKS[_square];
+		}
+	}
+
+	// Returns the type of the piece on the square, or 0 if it is empty.
+	private int TypeAt(int _square) {
+		return board[_square] & 7;
+	}
+
+	// Determines all the legal moves that the player to move can make from this position,
+	// as Move objects that can be shown to the player.
+	public ArrayList<Move> DetermineLegalMoves() {
+		ArrayList<Move> legalMoves = new ArrayList<Move>();
+		int[] codes = new int[MAX_MOVES];
+		int count = GenerateMoves(codes);
+
+		for (int index = 0; index < count; index++)
+			legalMoves.add(new Move(codes[index], this));
+
 		return legalMoves;
 	}
 
+	// Returns the squares of any other pieces of the same type and colour as 
+	// the one making the supplied legal move that could also legally move to
+	// the same square. If there are any, the notation for the move has to 
+	// show which piece is moving. Pawns and kings never need to.
+	long Rivals(int _move) {
+		int piece = PackedMove.Piece(_move);
+		if (piece == Piece.PAWN || piece == Piece.KING)
+			return 0;
+
+		// Attacks are symmetrical, so the pieces that could move to the square
+		// are the ones a piece of the same type there would attack.
+		int to = PackedMove.To(_move);
+		long candidates = pieceBoards[whoseTurn][piece] & Attacks(piece, to, occupied) & ~Bitboard.Bit(PackedMove.From(_move));
+		long rivals = 0;
+
+		while (candidates != 0) {
+			int from = Bitboard.First(candidates);
+			candidates &= candidates - 1;
+
+			if (!MoveIntoCheck(PackedMove.Create(from, to, piece, PackedMove.Taken(_move), 0, 0)))
+				rivals |= Bitboard.Bit(from);
+		}
+
+		return rivals;
+	}
+
 	// Below how many moves do we apply the evaluations for the opening phase of the game
 	static final int END_OF_OPENING = 10;
 	
@@ -211,67 +667,64 @@ class Position {
 	static final int CASTLED = 50;
 	static final int CENTRE_SQUARE_OCCUPIED = 50;
 
+	// The bonus for having a piece of each type on each square, indexed by
+	// [Piece.PAWN ... Piece.KING][square] from white's side of the board. 
+	// Black's pieces use the square in the same place on their own side.
+	// For now every piece simply gets the bonus for occupying the centre.
+	static final int[][] PIECE_SQUARE = new int[7][64];
+
+	static {
+		for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+			for (long centre = Bitboard.CENTRE; centre != 0; centre &= centre - 1)
+				PIECE_SQUARE[type][Bitboard.First(centre)] = CENTRE_SQUARE_OCCUPIED;
+		}
+	}
+
+	// Returns the bonus for the piece standing on the square given.
+	private static int PieceSquareValue(Piece _piece, int _square) {
+		// Flipping the rank turns a square into the same square on black's side.
+		return PIECE_SQUARE[_piece.type][(_piece.colour == Resources.WHITE) ? _square : _square ^ 56];
+	}
+
 	/**
 	 * This method evaluates the Position and sets its evaluation field accordingly.
 	 */
 
 	public int Evaluate() {
-		// Start by setting the evaluation to the difference in material.
-		int evaluation = totalMaterial[Resources.WHITE] - totalMaterial[Resources.BLACK];
-		
-		// These fields store the number of doubled and tripled pawns each colour has in this position.
-		int multiplePawns[] = { 0, 0 };
-		int minorPiecesNotMoved[] = { 0, 0 };
-
-		int pawnsInFile[][] = new int[2][8];
-
-		// Do a scan of the board and store a bit of information...
-		Piece currentPiece;
-		for (int file = 0; file < 8; file++) {
-			for (int rank = 0; rank < 8; rank++) {
-				currentPiece = squares[rank][file];	
-				if (currentPiece != null) {
-					// Count the number of pawns in each file.
-					if (currentPiece instanceof Pawn) {
-						pawnsInFile[currentPiece.colour][file]++;
-						if (pawnsInFile[currentPiece.colour][file] > 1)
-							multiplePawns[currentPiece.colour]++;
-					}
-					
-					// Count how many minor pieces each colour has that haven't moved.
-					if (currentPiece instanceof Bishop || currentPiece instanceof Knight) {
-						if (currentPiece.moveCount == 0)
-							minorPiecesNotMoved[currentPiece.colour]++;
-					}
-				}
-			}
-		}
-		
-		// Modify the evaluation to reflected the appropriate penalties.
-		int penalty = 0;
-		int bonus = 0;
+		// Start by setting the evaluation to the difference in material and in
+		// where the pieces stand, both of which are kept up to date as moves 
+		// are made.
+		int evaluation = totalMaterial[Resources.WHITE] - totalMaterial[Resources.BLACK]
+				+ pieceSquareTotal[Resources.WHITE] - pieceSquareTotal[Resources.BLACK];
 		
 		for (int colour = 0; colour < 2; colour++) {
-			// Calculate the penalties for doubled and tripled pawns.
-			penalty = multiplePawns[colour] * DOUBLED_PAWN;
+			// Modify the evaluation to reflected the appropriate penalties.
+			int penalty = 0;
+			int bonus = 0;
+
+			long pawns = pieceBoards[colour][Piece.PAWN];
 
-			// Determine if any pawns are isolated.
 			for (int file = 0; file < 8; file++) {
-				if (pawnsInFile[colour][file] != 0) {
+				long pawnsInFile = pawns & Bitboard.FILE_MASK[file];
+				if (pawnsInFile != 0) {
+					// Calculate the penalties for doubled and tripled pawns.
+					penalty += (Bitboard.Count(pawnsInFile) - 1) * DOUBLED_PAWN;
+
 					// This colour has pawns in this file, does it have any neighbours?
-					if (((file == 0) || (pawnsInFile[colour][file - 1] == 0 ))
-							&& ((file == 7) || (pawnsInFile[colour][file + 1] == 0))) {
+					if ((pawns & Bitboard.ADJACENT_FILES[file]) == 0) {
 						// This file has at least one isolated pawn.
 						penalty += ISOLATED_PAWN;
 					}
-				}		
+				}
 			}
 				
 			// If a player hasn't moved each of their pieces by the end of the opening, apply a penalty.
-			if (scoreSheet.size() < END_OF_OPENING) 
-				penalty += minorPiecesNotMoved[colour] * MINOR_PIECE_NOT_MOVED;
+			if (movesMade < END_OF_OPENING) {
+				long minorPieces = pieceBoards[colour][Piece.KNIGHT] | pieceBoards[colour][Piece.BISHOP];
+				penalty += Bitboard.Count(minorPieces & unmovedPieces) * MINOR_PIECE_NOT_MOVED;
+			}
 
-			if (castled[colour] == false && squares[kingRank[colour]][kingFile[colour]].moveCount != 0)
+			if (castled[colour] == false && (pieceBoards[colour][Piece.KING] & unmovedPieces) == 0)
 				penalty += CASTLED;
 			
 			// The direction the evaluation should move (+ or -) is 
@@ -283,20 +736,6 @@ class Position {
 			// Castling is a good thing...
 			if (castled[colour])
 				bonus = CASTLED;
-				
-			// Occupation of the centre squares is a good thing.
-			if (squares[3][3] != null && squares[3][3].colour == colour) {
-				bonus += CENTRE_SQUARE_OCCUPIED;
-			}
-			if (squares[3][4] != null && squares[3][4].colour == colour) {
-				bonus += CENTRE_SQUARE_OCCUPIED;
-			}
-			if (squares[4][3] != null && squares[4][3].colour == colour) {
-				bonus += CENTRE_SQUARE_OCCUPIED;
-			}
-			if (squares[4][4] != null && squares[4][4].colour == colour) {
-				bonus += CENTRE_SQUARE_OCCUPIED;
-			}
 
 			// The direction the evaluation should move (+ or -) is 
 			bonus *= bonusModifier[colour];
@@ -315,21 +754,28 @@ class Position {
 		whoseTurn = Resources.WHITE;
 
 		movesSinceLastTake = 0;
+		movesMade = 0;
+		historyStart = 0;
+		enPassantSquare = NO_SQUARE;
+		castlingRights = WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE;
 
 		scoreSheet = new MoveStack();
+		move = null;
 
 		castled[Resources.WHITE] = false;
 		castled[Resources.BLACK] = false;
 		
 		totalMaterial[Resources.WHITE] = 0;
 		totalMaterial[Resources.BLACK] = 0;
+		pieceSquareTotal[Resources.WHITE] = 0;
+		pieceSquareTotal[Resources.BLACK] = 0;
 		
-		// Store the current position of both kings for faster determination of
-		// whether a move puts the player in check or not.
-		kingRank[Resources.WHITE] = 0;
-		kingFile[Resources.WHITE] = 4;
-		kingRank[Resources.BLACK] = 7;
-		kingFile[Resources.BLACK] = 4;
+		// Empty the bitboards, they are filled in again as the pieces are placed.
+		for (int colour = 0; colour < 2; colour++) {
+			Arrays.fill(pieceBoards[colour], 0);
+			colourBoards[colour] = 0;
+		}
+		occupied = 0;
 		
 		// Set up the pieces on the board.
 		for (rank = 0; rank < 8; rank++) {
@@ -341,108 +787,111 @@ class Position {
 
 			for (file = 0; file < 8; file++) {
 				// Set as an empty square by default, then add the pieces...
-				squares[rank][file] = null;
+				board[Bitboard.Square(rank, file)] = 0;
 
-				// Put all the pieces on the first and eighth ranks. Store a pointer to a
-				// rook, bishop, knight and king for the purpose of determining if the
-				// player is in check.
+				// Put all the pieces on the first and eighth ranks.
 				if (rank == 0 || rank == 7) {
 					if (file == 0 || file == 7)
-						squares[rank][file] = new Rook(currentColour);
+						PutPiece(PIECES[currentColour][Piece.ROOK], rank, file);
 
 					if (file == 1 || file == 6)
-						squares[rank][file] = new Knight(currentColour);
+						PutPiece(PIECES[currentColour][Piece.KNIGHT], rank, file);
 
 					if (file == 2 || file == 5)
-						squares[rank][file] = new Bishop(currentColour);
+						PutPiece(PIECES[currentColour][Piece.BISHOP], rank, file);
 
 					if (file == 3)
-						squares[rank][file] = new Queen(currentColour);
+						PutPiece(PIECES[currentColour][Piece.QUEEN], rank, file);
 
 					if (file == 4) 
-						squares[rank][file] = new King(currentColour);
+						PutPiece(PIECES[currentColour][Piece.KING], rank, file);
 				}
 
 				// Put all the pawns on the second and seventh ranks.
 				if (rank == 1 || rank == 6)
-					squares[rank][file] = new Pawn(currentColour);
+					PutPiece(PIECES[currentColour][Piece.PAWN], rank, file);
 				
 				// Increase the total value of the pieces for each player
-				if (squares[rank][file] != null && !(squares[rank][file] instanceof King))
-					totalMaterial[currentColour] += squares[rank][file].value;
+				Piece piece = getPieceAt(rank, file);
+				if (piece != null && !(piece instanceof King))
+					totalMaterial[currentColour] += piece.value;
 			}
 		}
+
+		unmovedPieces = occupied;
+		key = ComputeKey();
 	}
-	
-	// This method updates the current Position with the supplied move.
-	public void MakeMove(Move _move) {
-		scoreSheet.push(_move);
 
-		// If the piece being moved is the king, update the cached location.
-		if (_move.pieceMoved instanceof King) {
-			kingRank[_move.pieceMoved.colour] = _move.newRank;
-			kingFile[_move.pieceMoved.colour] = _move.newFile;
-		}
+	// Works out the Zobrist key of this position from scratch. MakeMove(int)
+	// keeps the key up to date without this.
+	private long ComputeKey() {
+		long newKey = Zobrist.CASTLING[castlingRights] ^ EnPassantKey();
 
-		// If the move is castling, move the rook too.
-		if (_move.castling == Move.QUEEN_SIDE) {
-			squares[_move.newRank][3] = squares[_move.newRank][0];
-			squares[_move.newRank][3].moveCount++;
-			squares[_move.newRank][0] = null;
-			castled[_move.pieceMoved.colour] = true;
-		} else if (_move.castling == Move.KING_SIDE) {
-			squares[_move.newRank][5] = squares[_move.newRank][7];
-			squares[_move.newRank][5].moveCount++;
-			squares[_move.newRank][7] = null;
-			castled[_move.pieceMoved.colour] = true;
-		}
+		if (whoseTurn == Resources.BLACK)
+			newKey ^= Zobrist.BLACK_TO_MOVE;
 
-		// If the move is an en passant take, remove the pawn that is taken.
-		if (_move.enPassant) {
-			squares[_move.oldRank][_move.newFile] = null;
+		for (int colour = 0; colour < 2; colour++) {
+			for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+				for (long pieces = pieceBoards[colour][type]; pieces != 0; pieces &= pieces - 1)
+					newKey ^= Zobrist.PIECES[colour][type][Bitboard.First(pieces)];
+			}
 		}
 
-		// Promote the pawn if required and increase the moving player's material.
-		if (_move.pieceMoved instanceof Pawn && (_move.newRank == 0 || _move.newRank == 7)) {
-			switch (_move.promotionPiece) {
-				case Piece.KNIGHT:
-					squares[_move.newRank][_move.newFile] = new Knight(_move.pieceMoved.colour);
-					totalMaterial[_move.pieceMoved.colour] += 200;
-					break;
-				case Piece.BISHOP:
-					squares[_move.newRank][_move.newFile] = new Bishop(_move.pieceMoved.colour);
-					totalMaterial[_move.pieceMoved.colour] += 225;
-					break;
-				case Piece.ROOK:
-					squares[_move.newRank][_move.newFile] = new Rook(_move.pieceMoved.colour);
-					totalMaterial[_move.pieceMoved.colour] += 400;
-					break;
-				case Piece.QUEEN:
-					squares[_move.newRank][_move.newFile] = new Queen(_move.pieceMoved.colour);
-					totalMaterial[_move.pieceMoved.colour] += 800;
-					break;
-			}
-		} else {
-			// Move the piece from its old square to the new square.
-			squares[_move.newRank][_move.newFile] = _move.pieceMoved;
+		return newKey;
+	}
+
+	// The en passant file is only part of the key if the player to move has 
+	// a pawn that could take en passant, as otherwise the position is no 
+	// different to the same one reached without a pawn moving two squares.
+	private long EnPassantKey() {
+		if (enPassantSquare == NO_SQUARE || (Bitboard.PAWN_ATTACKS[1 - whoseTurn][enPassantSquare] & pieceBoards[whoseTurn][Piece.PAWN]) == 0)
+			return 0;
+
+		return Zobrist.EN_PASSANT_FILE[Bitboard.File(enPassantSquare)];
+	}
+
+	// Places the piece on the specified empty square and sets the matching bits.
+	private void PutPiece(Piece _piece, int _rank, int _file) {
+		int square = Bitboard.Square(_rank, _file);
+		long bit = Bitboard.Bit(square);
+
+		board[square] = (byte) (_piece.colour * 8 + _piece.type);
+		pieceBoards[_piece.colour][_piece.type] |= bit;
+		colourBoards[_piece.colour] |= bit;
+		occupied |= bit;
+		pieceSquareTotal[_piece.colour] += PieceSquareValue(_piece, square);
+	}
+
+	// Removes whatever piece is on the specified square and clears the matching bits.
+	private void RemovePiece(int _rank, int _file) {
+		int square = Bitboard.Square(_rank, _file);
+		Piece piece = PieceOn(square);
+
+		if (piece != null) {
+			long bit = Bitboard.Bit(square);
+
+			board[square] = 0;
+			pieceBoards[piece.colour][piece.type] &= ~bit;
+			colourBoards[piece.colour] &= ~bit;
+			occupied &= ~bit;
+			pieceSquareTotal[piece.colour] -= PieceSquareValue(piece, square);
 		}
+	}
 
-		// Remove it from it's old square.
-		squares[_move.oldRank][_move.oldFile] = null;
-		
-		// Reduce the opponents totalMaterial tally if a piece is taken.
-		// Also record that a piece was taken for adjusting the search depth on takes.
-		if (_move.pieceTaken != null)
-			totalMaterial[_move.pieceTaken.colour] -= _move.pieceTaken.value;		
+	// Moves the piece on the first square to the second, which must be empty.
+	private void ShiftPiece(int _fromRank, int _fromFile, int _toRank, int _toFile) {
+		Piece piece = getPieceAt(_fromRank, _fromFile);
 
-		// Set the piece to record the fact that it has now moved at least once.
-		_move.pieceMoved.moveCount++;
-		
-		// Swap the whoseTurn field must be swapped to the other player
-		if (whoseTurn == Resources.WHITE) 
-			whoseTurn = Resources.BLACK;
-		else
-			whoseTurn = Resources.WHITE;
+		RemovePiece(_fromRank, _fromFile);
+		PutPiece(piece, _toRank, _toFile);
+	}
+	
+	// This method updates the current Position with the supplied move and
+	// records it on the score sheet.
+	public void MakeMove(Move _move) {
+		scoreSheet.push(_move);
+
+		MakeMove(_move.code);
 
 		// Set the move that lead to this position.
 		move = _move;
@@ -451,64 +900,12 @@ class Position {
 		UpdateResult();
 	}
 
-	// This method updates the current Position by undoing the last move made.
+	// This method updates the current Position by undoing the last move made
+	// and taking it off the score sheet.
 	public void UndoMove() {
 		Move lastMove = scoreSheet.pop();
-		
-		// If the piece that was moved is the king, update the cached location.
-		if (lastMove.pieceMoved instanceof King) {
-			kingRank[lastMove.pieceMoved.colour] = lastMove.oldRank;
-			kingFile[lastMove.pieceMoved.colour] = lastMove.oldFile;
-		}
 
-		// If the move was castling, move the rook back too.
-		if (move.castling == Move.QUEEN_SIDE) {
-			squares[lastMove.newRank][0] = squares[lastMove.newRank][3];
-			squares[lastMove.newRank][0].moveCount--;
-			squares[lastMove.newRank][3] = null;
-			castled[lastMove.pieceMoved.colour] = false;
-		} else if (move.castling == Move.KING_SIDE) {
-			squares[lastMove.newRank][7] = squares[lastMove.newRank][5];
-			squares[lastMove.newRank][7].moveCount--;
-			squares[lastMove.newRank][5] = null;
-			castled[lastMove.pieceMoved.colour] = false;
-		}
-		
-		// Demote the pawn if required and decrease the moving players material.
-		if (lastMove.pieceMoved instanceof Pawn && (lastMove.newRank == 0 || lastMove.newRank == 7)) {
-			if (squares[lastMove.newRank][lastMove.newFile] instanceof Knight)
-				totalMaterial[lastMove.pieceMoved.colour] -= 200;
-			else if (squares[lastMove.newRank][lastMove.newFile] instanceof Bishop)
-				totalMaterial[lastMove.pieceMoved.colour] -= 225;
-			else if (squares[lastMove.newRank][lastMove.newFile] instanceof Rook)
-				totalMaterial[lastMove.pieceMoved.colour] -= 400;
-			else if (squares[lastMove.newRank][lastMove.newFile] instanceof Queen)
-				totalMaterial[lastMove.pieceMoved.colour] -= 800;
-		} 
-
-		// Move the piece from its old square to the new square.
-		squares[lastMove.oldRank][lastMove.oldFile] = lastMove.pieceMoved;
-
-		// Replace any taken piece in it's old square.
-		if (lastMove.enPassant) {
-			squares[lastMove.oldRank][lastMove.newFile] = lastMove.pieceTaken;
-			squares[lastMove.newRank][lastMove.newFile] = null;
-		} else
-			squares[lastMove.newRank][lastMove.newFile] = lastMove.pieceTaken;
-		
-		// Increase the opponents totalMaterial tally as the piece is replaced.
-		if (lastMove.pieceTaken != null) {
-			totalMaterial[lastMove.pieceTaken.colour] += lastMove.pieceTaken.value;
-		}
-
-		// Reduce the pieces move count.
-		lastMove.pieceMoved.moveCount--;
-	
-		// Swap the whoseTurn field must be swapped to the other player
-		if (whoseTurn == Resources.WHITE) 
-			whoseTurn = Resources.BLACK;
-		else
-			whoseTurn = Resources.WHITE;
+		UnmakeMove(lastMove.code);
 		
 		// Set the move that lead to this position.
 		if (scoreSheet.empty() == false)
@@ -517,204 +914,397 @@ class Position {
 			move = null;
 	}
 
-	// This method determines if the specified move puts the player in check.
-	public boolean MoveIntoCheck(Move _move) {
-		// Skeleton code from the make move method...
-		
-		// If the piece being moved is the king, update the cached location.
-		if (_move.pieceMoved instanceof King) {
-			kingRank[_move.pieceMoved.colour] = _move.newRank;
-			kingFile[_move.pieceMoved.colour] = _move.newFile;
-		}
+	// This method updates the current Position with the supplied packed move.
+	// It is used directly by the search, so it doesn't touch the score sheet
+	// or work out the state of the game.
+	public void MakeMove(int _move) {
+		int from = PackedMove.From(_move);
+		int to = PackedMove.To(_move);
+		int fromRank = Bitboard.Rank(from);
+		int fromFile = Bitboard.File(from);
+		int toRank = Bitboard.Rank(to);
+		int toFile = Bitboard.File(to);
+		int colour = whoseTurn;
+
+		int undoIndex = movesMade - historyStart;
+		if (undoIndex == undoStates.length)
+			ExtendHistory();
+
+		Piece piece = PieceOn(from);
+		int takenCode = 0;
+
+		// Record what is needed to undo the move. The piece taken is added 
+		// once it is known.
+		undoKeys[undoIndex] = key;
+		undoUnmoved[undoIndex] = unmovedPieces;
+
+		// The pieces that move are xored out of the key on the squares they 
+		// leave and in on the squares they arrive at, as are the other parts
+		// of the key that change.
+		key ^= Zobrist.BLACK_TO_MOVE ^ EnPassantKey() ^ Zobrist.CASTLING[castlingRights];
 
 		// If the move is castling, move the rook too.
-		if (_move.castling == Move.QUEEN_SIDE) {
-			squares[_move.newRank][3] = squares[_move.newRank][0];
-			squares[_move.newRank][0] = null;
-		} else if (_move.castling == Move.KING_SIDE) {
-			squares[_move.newRank][5] = squares[_move.newRank][7];
-			squares[_move.newRank][7] = null;
+		if (PackedMove.IsCastling(_move)) {
+			if (toFile == 2) {
+				ShiftPiece(toRank, 0, toRank, 3);
+				key ^= Zobrist.PIECES[colour][Piece.ROOK][Bitboard.Square(toRank, 0)] ^ Zobrist.PIECES[colour][Piece.ROOK][Bitboard.Square(toRank, 3)];
+			} else {
+				ShiftPiece(toRank, 7, toRank, 5);
+				key ^= Zobrist.PIECES[colour][Piece.ROOK][Bitboard.Square(toRank, 7)] ^ Zobrist.PIECES[colour][Piece.ROOK][Bitboard.Square(toRank, 5)];
+			}
+			castled[colour] = true;
 		}
 
-		// If the move is an en passant take, remove the pawn that is taken.
-		if (_move.enPassant) {
-			squares[_move.oldRank][_move.newFile] = null;
+		// Take any piece off the destination square, or the pawn that is taken
+		// if the move is an en passant take, and reduce the opponent's 
+		// totalMaterial tally.
+		if (PackedMove.IsCapture(_move)) {
+			int takenRank = PackedMove.IsEnPassant(_move) ? fromRank : toRank;
+			Piece taken = getPieceAt(takenRank, toFile);
+
+			takenCode = board[Bitboard.Square(takenRank, toFile)];
+			totalMaterial[taken.colour] -= taken.value;
+			RemovePiece(takenRank, toFile);
+			key ^= Zobrist.PIECES[taken.colour][taken.type][Bitboard.Square(takenRank, toFile)];
 		}
 
-		squares[_move.newRank][_move.newFile] = _move.pieceMoved;
-
 		// Remove it from it's old square.
-		squares[_move.oldRank][_move.oldFile] = null;
-		
-		if (SquareAttacked(kingRank[whoseTurn], kingFile[whoseTurn], whoseTurn)) {
-			PartialUndoMove(_move);
-			return true;
+		RemovePiece(fromRank, fromFile);
+
+		// Promote the pawn if required and increase the moving player's material.
+		if (PackedMove.Promotion(_move) != 0) {
+			Piece promoted = PIECES[colour][PackedMove.Promotion(_move)];
+			PutPiece(promoted, toRank, toFile);
+			totalMaterial[colour] += promoted.value - piece.value;
+			key ^= Zobrist.PIECES[colour][promoted.type][to];
 		} else {
-			PartialUndoMove(_move);
-			return false;
+			// Move the piece from its old square to the new square.
+			PutPiece(piece, toRank, toFile);
+			key ^= Zobrist.PIECES[colour][piece.type][to];
 		}
+		key ^= Zobrist.PIECES[colour][piece.type][from];
+
+		undoStates[undoIndex] = (takenCode << UNDO_TAKEN_SHIFT) | (castlingRights << UNDO_CASTLING_SHIFT)
+				| ((enPassantSquare + 1) << UNDO_EN_PASSANT_SHIFT) | (movesSinceLastTake << UNDO_CLOCK_SHIFT);
+
+		// Moving a king or rook, or taking a rook, loses the right to castle with it.
+		castlingRights &= CASTLING_KEPT[from] & CASTLING_KEPT[to];
+
+		// Record the fact that the piece has now moved at least once. Any piece
+		// taken on the square it lands on is gone, and castling moves the rook.
+		unmovedPieces &= ~(Bitboard.Bit(from) | Bitboard.Bit(to));
+		if (PackedMove.IsCastling(_move))
+			unmovedPieces &= ~Bitboard.Bit(Bitboard.Square(toRank, (toFile == 2) ? 0 : 7));
+
+		// A pawn that has moved two squares can be taken on the square it passed over.
+		if (PackedMove.IsDoublePush(_move))
+			enPassantSquare = (from + to) / 2;
+		else
+			enPassantSquare = NO_SQUARE;
+
+		// The count towards the fifty move rule starts again whenever a piece
+		// is taken or a pawn moves.
+		if (takenCode != 0 || piece.type == Piece.PAWN)
+			movesSinceLastTake = 0;
+		else
+			movesSinceLastTake++;
+
+		movesMade++;
+		
+		// Swap the whoseTurn field must be swapped to the other player
+		whoseTurn = 1 - colour;
+
+		key ^= EnPassantKey() ^ Zobrist.CASTLING[castlingRights];
 	}
 
-	// This method updates the current Position with the supplied move.
-	public void PartialUndoMove(Move _move) {
-		// If the piece that was moved is the king, update the cached location.
-		if (_move.pieceMoved instanceof King) {
-			kingRank[_move.pieceMoved.colour] = _move.oldRank;
-			kingFile[_move.pieceMoved.colour] = _move.oldFile;
-		}
+	// This method updates the current Position by undoing the supplied packed
+	// move, which must be the last move made.
+	public void UnmakeMove(int _move) {
+		int from = PackedMove.From(_move);
+		int to = PackedMove.To(_move);
+		int fromRank = Bitboard.Rank(from);
+		int fromFile = Bitboard.File(from);
+		int toRank = Bitboard.Rank(to);
+		int toFile = Bitboard.File(to);
+
+		// Swap the whoseTurn field back to the player that made the move.
+		whoseTurn = 1 - whoseTurn;
+		int colour = whoseTurn;
+
+		movesMade--;
+
+		// Restore everything that isn't worked out from the move itself.
+		int undoIndex = movesMade - historyStart;
+		int undoState = undoStates[undoIndex];
+		int takenCode = (undoState >>> UNDO_TAKEN_SHIFT) & 0xF;
+
+		castlingRights = (undoState >>> UNDO_CASTLING_SHIFT) & 0xF;
+		enPassantSquare = ((undoState >>> UNDO_EN_PASSANT_SHIFT) & 0x7F) - 1;
+		movesSinceLastTake = undoState >>> UNDO_CLOCK_SHIFT;
+		key = undoKeys[undoIndex];
+		unmovedPieces = undoUnmoved[undoIndex];
+
+		Piece piece = PIECES[colour][PackedMove.Piece(_move)];
+		Piece taken = (takenCode == 0) ? null : PIECES[takenCode >>> 3][takenCode & 7];
 
 		// If the move was castling, move the rook back too.
-		if (_move.castling == Move.QUEEN_SIDE) {
-			squares[_move.newRank][0] = squares[_move.newRank][3];
-			squares[_move.newRank][3] = null;
-		} else if (_move.castling == Move.KING_SIDE) {
-			squares[_move.newRank][7] = squares[_move.newRank][5];
-			squares[_move.newRank][5] = null;
+		if (PackedMove.IsCastling(_move)) {
+			if (toFile == 2) {
+				ShiftPiece(toRank, 3, toRank, 0);
+			} else {
+				ShiftPiece(toRank, 5, toRank, 7);
+			}
+			castled[colour] = false;
 		}
-		
+
+		// Demote the pawn if required and decrease the moving players material.
+		if (PackedMove.Promotion(_move) != 0)
+			totalMaterial[colour] -= PieceOn(to).value - piece.value;
+
 		// Move the piece from its new square back to the old square.
-		squares[_move.oldRank][_move.oldFile] = _move.pieceMoved;
+		RemovePiece(toRank, toFile);
+		PutPiece(piece, fromRank, fromFile);
+
+		// Replace any taken piece in it's old square and increase the 
+		// opponent's totalMaterial tally.
+		if (taken != null) {
+			if (PackedMove.IsEnPassant(_move))
+				PutPiece(taken, fromRank, toFile);
+			else
+				PutPiece(taken, toRank, toFile);
+
+			totalMaterial[taken.colour] += taken.value;
+		}
+	}
+
+	// Makes room to record more moves in the arrays used to undo them.
+	private void ExtendHistory() {
+		int size = undoStates.length * 2;
 
-		// Replace any taken piece in it's old square.
-		if (_move.enPassant) {
-			squares[_move.oldRank][_move.newFile] = _move.pieceTaken;
-			squares[_move.newRank][_move.newFile] = null;
-		} else
-			squares[_move.newRank][_move.newFile] = _move.pieceTaken;
+		undoStates = Arrays.copyOf(undoStates, size);
+		undoKeys = Arrays.copyOf(undoKeys, size);
+		undoUnmoved = Arrays.copyOf(undoUnmoved, size);
 	}
 
+	// This method determines if the specified move puts the player in check.
+	public boolean MoveIntoCheck(int _move) {
+		// Skeleton code from the make move method. Only the bitboards are 
+		// updated as they are all that SquareAttacked looks at, and castling
+		// is ignored as the rook cannot shield the king from check.
+		int colour = whoseTurn;
+		int piece = PackedMove.Piece(_move);
+		int taken = PackedMove.Taken(_move);
+		long fromTo = Bitboard.Bit(PackedMove.From(_move)) | Bitboard.Bit(PackedMove.To(_move));
+		long takenBit = 0;
+		
+		if (taken != 0) {
+			if (PackedMove.IsEnPassant(_move))
+				takenBit = Bitboard.Bit(Bitboard.Square(Bitboard.Rank(PackedMove.From(_move)), Bitboard.File(PackedMove.To(_move))));
+			else
+				takenBit = Bitboard.Bit(PackedMove.To(_move));
+		}
+
+		ToggleBits(colour, piece, fromTo, taken, takenBit);
+
+		boolean intoCheck = SquareAttacked(Bitboard.First(pieceBoards[colour][Piece.KING]), colour);
+
+		ToggleBits(colour, piece, fromTo, taken, takenBit);
+
+		return intoCheck;
+	}
+
+	// Flips the bits for a move being tried by MoveIntoCheck. Calling it a
+	// second time with the same arguments restores the bitboards.
+	private void ToggleBits(int _colour, int _piece, long _fromTo, int _taken, long _takenBit) {
+		pieceBoards[_colour][_piece] ^= _fromTo;
+		colourBoards[_colour] ^= _fromTo;
+
+		if (_taken != 0) {
+			pieceBoards[1 - _colour][_taken] ^= _takenBit;
+			colourBoards[1 - _colour] ^= _takenBit;
+		}
+
+		occupied = colourBoards[Resources.WHITE] | colourBoards[Resources.BLACK];
+	}
 	
 	// This method determines if the specified player is currently in check.
 	public boolean InCheck(int _colour) {
-		return SquareAttacked(kingRank[_colour], kingFile[_colour], _colour);
+		return SquareAttacked(Bitboard.First(pieceBoards[_colour][Piece.KING]), _colour);
 	}
 
 	// This method determines if the specified square is attacked by the opposite side
 	// to the colour specified. What? That's fucked. Well, it kind of makes sense. It's a long story.
 	public boolean SquareAttacked(int _rank, int _file, int _colour) {
-		int workingRank;
-		int workingFile;
-
-		// Loop through the three stored Piece objects: Bishop, Rook and Knight.
-		// These three pieces cover all of the moves that can be made by the rest
-		// of the pieces (pawns are handled separately.)
-		for (Piece testPiece : moveablePiece) {
-			// Loop through all of the standard moves this piece can make.
-			for (Piece.PieceMove testMove : testPiece.standardMoves) {
-				workingRank = _rank;
-				workingFile = _file;
-
-				do {
-					// Updating the working position with the offsets.
-					workingRank += testMove.rankOffset;
-					workingFile += testMove.fileOffset;
-
-					// Discard this direction as it has reached the edge of the board.
-					if (workingRank < 0 || workingRank > 7 || workingFile < 0 || workingFile > 7)
-						break;
-
-					// Check if the destination square has a piece on it.
-					if (squares[workingRank][workingFile] != null) {
-						if (squares[workingRank][workingFile].colour != _colour) {
-							// A piece of the opposite colour has been encountered first
-							// in this direction. Determine if the piece is a threat to
-							// the square.
-							if (testPiece instanceof King
-								 && squares[workingRank][workingFile] instanceof King) {
-								// The square is attacked by opposite king.
-								return true;
-							}
-							if (testPiece instanceof Knight
-								 && squares[workingRank][workingFile] instanceof Knight) {
-								// The square is attacked by a knight.
-								return true;
-							}
-							if (testPiece instanceof Bishop &&
-								(squares[workingRank][workingFile] instanceof Bishop
-								||  squares[workingRank][workingFile] instanceof Queen)) {
-									// The square is attacked by a bishop or queen.
-									return true;
-							}
-							if (testPiece instanceof Rook &&
-								(squares[workingRank][workingFile] instanceof Rook
-								||  squares[workingRank][workingFile] instanceof Queen)) {
-									// The square is attacked by a rook or queen.
-									return true;
-							} else
-								break;
-
-
-						} else {
-							// A piece of the same colour is arrived at first when looking
-							// in this direction. This direction is therefore not a danger so
-							// stop repeating.
-							break;
-						}
-					}	
-				} 
-				// Keeping repeating if a piece or the edge of the board has not been reached.
-				while (testMove.repeatable);
-			}
+		return SquareAttacked(Bitboard.Square(_rank, _file), _colour);
+	}
+
+	// Returns the pieces of the opposite colour to the one specified that 
+	// attack the square, with the sliders blocked by the occupied squares 
+	// given rather than those on the board.
+	long AttackersOf(int _square, int _colour, long _occupied) {
+		long[] opposingPieces = pieceBoards[1 - _colour];
+
+		return (Bitboard.KNIGHT_ATTACKS[_square] & opposingPieces[Piece.KNIGHT])
+				| (Bitboard.KING_ATTACKS[_square] & opposingPieces[Piece.KING])
+				| (Bitboard.PAWN_ATTACKS[_colour][_square] & opposingPieces[Piece.PAWN])
+				| (Bitboard.BishopAttacks(_square, _occupied) & (opposingPieces[Piece.BISHOP] | opposingPieces[Piece.QUEEN]))
+				| (Bitboard.RookAttacks(_square, _occupied) & (opposingPieces[Piece.ROOK] | opposingPieces[Piece.QUEEN]));
+	}
+
+	// The material won or lost by each capture in an exchange, used by 
+	// StaticExchange, which makes it when first called.
+	private int[] exchangeGains;
+
+	// Works out the material the player to move wins by making the move, if
+	// the pieces of both colours that attack its destination then take each
+	// other there in turn, least valuable first, each side stopping once a
+	// further capture would lose it material. Sliders lined up behind the
+	// pieces that take join in as they are uncovered, but pins are ignored.
+	int StaticExchange(int _move) {
+		int from = PackedMove.From(_move);
+		int to = PackedMove.To(_move);
+		long occupiedNow = occupied ^ Bitboard.Bit(from);
+
+		if (exchangeGains == null)
+			exchangeGains = new int[32];
+
+		int gained = PieceValue(PackedMove.Taken(_move));
+		int onSquare = PieceValue(PackedMove.Piece(_move));
+
+		if (PackedMove.IsEnPassant(_move))
+			occupiedNow ^= Bitboard.Bit(to ^ 8);
+
+		if (PackedMove.Promotion(_move) != 0) {
+			onSquare = PieceValue(PackedMove.Promotion(_move));
+			gained += onSquare - PieceValue(Piece.PAWN);
 		}
-		
+
+		exchangeGains[0] = gained;
+
+		int side = whoseTurn;
+		int depth = 0;
+
+		while (true) {
+			// The pieces that have taken are no longer on their squares, which
+			// may uncover the sliders behind them.
+			side = 1 - side;
+			long attackers = AttackersOf(to, 1 - side, occupiedNow) & occupiedNow;
+			if (attackers == 0)
+				break;
+
+			int type = Piece.PAWN;
+			while ((attackers & pieceBoards[side][type]) == 0)
+				type++;
+
+			depth++;
+			exchangeGains[depth] = onSquare - exchangeGains[depth - 1];
+
+			if (depth == exchangeGains.length - 1)
+				break;
+
+			onSquare = PieceValue(type);
+			occupiedNow ^= Bitboard.Bit(Bitboard.First(attackers & pieceBoards[side][type]));
+		}
+
+		// Work back from the last capture, each side choosing whether to take
+		// or not.
+		while (depth > 0) {
+			depth--;
+			exchangeGains[depth] = -Math.max(-exchangeGains[depth], exchangeGains[depth + 1]);
+		}
+
+		return exchangeGains[0];
+	}
+
+	// Returns the value of a type of piece, or 0 for an empty square.
+	static int PieceValue(int _type) {
+		return (_type == 0) ? 0 : PIECES[Resources.WHITE][_type].value;
+	}
+
+	// Rather than looking out from the square for attacking pieces one step at 
+	// a time, this works out the squares a piece of each kind standing on the
+	// square would attack, and checks if any of them hold an opposing piece of 
+	// that kind. Attacks are symmetrical, so that piece attacks the square.
+	boolean SquareAttacked(int _square, int _colour) {
+		int opponent = 1 - _colour;
+		long[] opposingPieces = pieceBoards[opponent];
+
+		if ((Bitboard.KNIGHT_ATTACKS[_square] & opposingPieces[Piece.KNIGHT]) != 0)
+			return true;
+
+		if ((Bitboard.KING_ATTACKS[_square] & opposingPieces[Piece.KING]) != 0)
+			return true;
+
 		// Pawns must be handled separately as they cannot move backwards 
 		// and take differently to the way they move.
-		if (_colour == Resources.WHITE) {
-			workingRank = _rank + 1;
-			workingFile = _file + 1;
-			if (workingRank > -1 && workingRank < 8 && workingFile > -1 && workingFile < 8) {
-				// If the king is white, the pawn must be black and at [+1,-1] or [+1,+1]
-				if (squares[workingRank][workingFile] != null
-				&& squares[workingRank][workingFile].colour == Resources.BLACK
-				&&  squares[workingRank][workingFile] instanceof Pawn)
-					return true;
-			}
-			workingFile -= 2;
-			if (workingRank > -1 && workingRank < 8 && workingFile > -1 && workingFile < 8) {
-				if (squares[workingRank][workingFile] != null
-				&& squares[workingRank][workingFile].colour == Resources.BLACK
-				&&  squares[workingRank][workingFile] instanceof Pawn)
-					return true;
-			}
-		} else {
-			workingRank = _rank - 1;
-			workingFile = _file + 1;
-			if (workingRank > -1 && workingRank < 8 && workingFile > -1 && workingFile < 8) {
-				// If the king is black, the pawn must be black and at [-1,-1] or [-1,+1]
-				if (squares[workingRank][workingFile] != null
-				&& squares[workingRank][workingFile].colour == Resources.WHITE
-				&&  squares[workingRank][workingFile] instanceof Pawn)
-				return true;
-			}
-			workingFile -= 2;
+		if ((Bitboard.PAWN_ATTACKS[_colour][_square] & opposingPieces[Piece.PAWN]) != 0)
+			return true;
 
-			if (workingRank > -1 && workingRank < 8 && workingFile > -1 && workingFile < 8) {
-				if (squares[workingRank][workingFile] != null 
-				&& squares[workingRank][workingFile].colour == Resources.WHITE
-				&&  squares[workingRank][workingFile] instanceof Pawn)
-					return true;
-			}
-		}
+		long diagonalSliders = opposingPieces[Piece.BISHOP] | opposingPieces[Piece.QUEEN];
+		if (diagonalSliders != 0 && (Bitboard.BishopAttacks(_square, occupied) & diagonalSliders) != 0)
+			return true;
+
+		long straightSliders = opposingPieces[Piece.ROOK] | opposingPieces[Piece.QUEEN];
+		if (straightSliders != 0 && (Bitboard.RookAttacks(_square, occupied) & straightSliders) != 0)
+			return true;
 		
-		// No piece has been found that puts the specified king in check.
+		// No piece has been found that attacks the specified square.
 		return false;
 	}
 
 	public Position() {
-		// These pieces are used by Positions to check if a square is being attacked.
-		// Create them when the first engine is instantiated.
-		moveablePiece[0] = new Rook(Resources.WHITE);
-		moveablePiece[1] = new Knight(Resources.WHITE);
-		moveablePiece[2] = new Bishop(Resources.WHITE);
-		moveablePiece[3] = new King(Resources.WHITE);
+		undoStates = new int[HISTORY_SIZE];
+		undoKeys = new long[HISTORY_SIZE];
+		undoUnmoved = new long[HISTORY_SIZE];
 
 		// Setup the initial position of the board.
 		Reset();
 	}
 
+	// A copy starts with room for this many moves to be undone.
+	private static final int COPY_HISTORY_SIZE = 16;
+
+	// Creates a copy of the supplied position that moves can be made on 
+	// without affecting the original, for example by another thread. The 
+	// copy has no score sheet, so moves can only be made on it with
+	// MakeMove(int), and it can't undo the moves made before it was copied.
+	public Position(Position _position) {
+		System.arraycopy(_position.board, 0, board, 0, board.length);
+
+		for (int colour = 0; colour < 2; colour++) {
+			System.arraycopy(_position.pieceBoards[colour], 0, pieceBoards[colour], 0, pieceBoards[colour].length);
+			colourBoards[colour] = _position.colourBoards[colour];
+			castled[colour] = _position.castled[colour];
+			totalMaterial[colour] = _position.totalMaterial[colour];
+			pieceSquareTotal[colour] = _position.pieceSquareTotal[colour];
+		}
+		occupied = _position.occupied;
+
+		scoreSheet = null;
+		move = null;
+		whoseTurn = _position.whoseTurn;
+		movesSinceLastTake = _position.movesSinceLastTake;
+		enPassantSquare = _position.enPassantSquare;
+		castlingRights = _position.castlingRights;
+		key = _position.key;
+		unmovedPieces = _position.unmovedPieces;
+		movesMade = _position.movesMade;
+		lastDestinationRank = _position.lastDestinationRank;
+		lastDestinationFile = _position.lastDestinationFile;
+
+		// Only the moves made from here on are recorded, which for a search
+		// is no more than its depth. The history grows if more are made.
+		historyStart = movesMade;
+		undoStates = new int[COPY_HISTORY_SIZE];
+		undoKeys = new long[COPY_HISTORY_SIZE];
+		undoUnmoved = new long[COPY_HISTORY_SIZE];
+	}
+
 //	 This abstract class represents the common attributes of all pieces. It is implemented by each
-//	 of the concrete piece classes: King, Queen, Rook, Knight, Bishop and Pawn.
-	abstract class Piece implements Cloneable {
+//	 of the concrete piece classes: King, Queen, Rook, Knight, Bishop and Pawn. Pieces hold nothing
+//	 that changes during a game, so there is just one of each kind (see PIECES), which is shared
+//	 by every position.
+	static abstract class Piece {
 		public static final int PAWN = 1;
 		public static final int KNIGHT = 2;
 		public static final int BISHOP = 3;
@@ -726,16 +1316,7 @@ class Position {
 		public final int colour;
 		public final int type;
 		public final String fullName;
-		public String icon;
-
-		public int moveCount = 0;
-
-		public PieceMove[] standardMoves;
-		public boolean moveRepeatable;
-
-		// This abstract method is implemented differently by each specific type of piece.
-		// It returns a vector of all the pieces possible standard and special moves.
-		abstract ArrayList<Move> Moves(Position _theBoard, int _rank, int _file);
+		public final String icon;
 
 		public String toString() {
 			return (Resources.englishColour[colour] + " " + fullName);
@@ -745,60 +1326,6 @@ class Position {
 			return fullName;
 		}
 
-		// This method returns a vector of a piece's possible standard moves.
-		protected ArrayList<Move> GetStandardMoves(Position _theBoard, int _rank, int _file) {
-			ArrayList<Move> possibleStandardMoves = new ArrayList<Move>();
-
-			// Loop through all of the standard moves this piece can make.
-			for (PieceMove standardMove : standardMoves) {
-				int workingRank = _rank;
-				int workingFile = _file;
-
-				boolean keepRepeating = true;
-
-				do {
-					// Updating the working position with the offsets.
-					workingRank += standardMove.rankOffset;
-					workingFile += standardMove.fileOffset;
-
-					// Discard the move and any further repetitions if it takes the piece off the board.
-					if (workingRank < 0 || workingRank > 7 || workingFile < 0 || workingFile > 7)
-						break;
-
-					// Check if the destination square has a piece on it.
-					if (_theBoard.squares[workingRank][workingFile] != null) {
-						if (_theBoard.squares[workingRank][workingFile].colour == this.colour) {
-							// Discard this move and any further repetitions as the destination
-							// square contains a piece of the same colour.
-							break;
-						} else {
-							// Accept the current move and ignore any further repetitions if
-							// this move takes an opposing piece.
-							keepRepeating = false;
-						}
-					}
-					
-					// Create a new Move represent the this move
-					Move newMove = new Move(_rank, _file, workingRank, workingFile, 0, _theBoard);
-
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					if (_theBoard.MoveIntoCheck(newMove) == false)
-						possibleStandardMoves.add(newMove);					
-
-				} 
-				// Keeping repeating if the piece can move more than one square and has not yet hit
-				// another piece.
-				while (standardMove.repeatable && keepRepeating);
-				 
-			}
-			return (possibleStandardMoves);
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
-		}
-
 		Piece (int _colour, int _value, int _type, String _fullName) {
 			colour = _colour;
 	        value = _value;
@@ -807,392 +1334,59 @@ class Position {
 			fullName = _fullName;
 
 			if (colour == Resources.BLACK)
-				icon = "b";
+				icon = "b" + fullName + ".png";
 			else
-				icon = "w";
-		}
-
-		protected class PieceMove {
-			// This class represents the standard way in which a piece can move.
-			int rankOffset;
-			int fileOffset;
-			
-			// This flag indicates whether the piece can move multiple times in any 
-			// given direction.
-			boolean repeatable;
-
-			PieceMove (int _rankOffset, int _fileOffset, boolean _repeatable) {
-				rankOffset = _rankOffset;
-				fileOffset = _fileOffset;
-				repeatable = _repeatable;
-			}
+				icon = "w" + fullName + ".png";
 		}
 	}
 
-	class Pawn extends Piece implements Cloneable {
-		Pawn (int _colour) {
+	static final class Pawn extends Piece {
+		private Pawn (int _colour) {
 			super(_colour, 100, Piece.PAWN, "pawn");
-			icon += "pawn.png";
-			// Pawns do not have any standard moves.
-		}
-
-		// Returns a vector of Move objects that represents all the moves this piece can make
-		// from the current position.
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			ArrayList<Move> possibleMoves = new ArrayList<Move>();
-			
-			int rankOffset;
-			int initialRankOffset;
-
-			Move lastMove = null;
-			
-			// This is needed to determine if an en passant take is possible.
-			if (!_theBoard.scoreSheet.empty())
-				lastMove = (Move) _theBoard.scoreSheet.peek();
-			
-			// Determine which way the pawn moves based on its colour. Note that this
-			// is not affected by the orientation of the board when it is displayed.
-			if (colour == Resources.WHITE) {
-				rankOffset = +1;
-				initialRankOffset = +2;
-			} else {
-				rankOffset = -1;
-				initialRankOffset = -2;
-			}
-			
-			if (_theBoard.squares[_rank + rankOffset][_file] == null) {	
-				// Create a new Move represent the this move
-				if (_rank + rankOffset != 0 && _rank + rankOffset != 7) {
-					// The pawn does not promote with this move
-					Move newMove = new Move(_rank, _file, _rank + rankOffset, _file, 0, _theBoard);
-
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					if (_theBoard.MoveIntoCheck(newMove) == false)
-						possibleMoves.add(newMove);
-				} else {
-					// The pawn would promote with this move
-					Move newMove = new Move(_rank, _file, _rank + rankOffset, _file, 2, _theBoard);
-					
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					// Otherwise, add the rest of the promotion possibilities to the list of moves.
-					if (_theBoard.MoveIntoCheck(newMove) == false) {
-						possibleMoves.add(newMove);
-						for (int promotionNumber = 3; promotionNumber <= 5; promotionNumber++)
-							possibleMoves.add(new Move(_rank, _file, _rank + rankOffset, _file, promotionNumber, _theBoard));
-					}
-				}
-			}
-
-			// If the two squares 'ahead' are empty and the pawn hasn't yet moved, try moving there.
-			if (moveCount == 0) {
-				if (_theBoard.squares[_rank + rankOffset][_file] == null && _theBoard.squares[_rank + initialRankOffset][_file] == null) {	
-					// Create a new Move represent the this move
-					Move newMove = new Move(_rank, _file, _rank + initialRankOffset, _file, 0, _theBoard);
-				
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					if (_theBoard.MoveIntoCheck(newMove) == false)
-						possibleMoves.add(newMove);		
-				}
-			}
-			
-			// If there is a piece of the opposite colour -1 and ahead, try moving there.
-			if (_file - 1 > -1) {
-				if (_theBoard.squares[_rank + rankOffset][_file - 1] != null &&  _theBoard.squares[_rank + rankOffset][_file - 1].colour != colour) {
-					// Create a new Move represent the this move
-					if (_rank + rankOffset != 0 && _rank + rankOffset != 7) {
-						// The pawn does not promote this move
-						Move newMove = new Move(_rank, _file, _rank + rankOffset, _file - 1, 0, _theBoard);
-					
-						// Discard this move and any further repetitions if the move results in the
-						// player's king being in check.
-						if (_theBoard.MoveIntoCheck(newMove) == false)
-							possibleMoves.add(newMove);
-					} else {
-						// The pawn would promote with this move
-						Move newMove = new Move(_rank, _file, _rank + rankOffset, _file - 1, 2, _theBoard);
-						
-						// Discard this move and any further repetitions if the move results in the
-						// player's king being in check.
-						// Otherwise, add the rest of the promotion possibilities to the list of moves.
-						if (_theBoard.MoveIntoCheck(newMove) == false) {
-							possibleMoves.add(newMove);
-							for (int promotionNumber = 3; promotionNumber <= 5; promotionNumber++)
-								possibleMoves.add(new Move(_rank, _file, _rank + rankOffset, _file - 1, promotionNumber, _theBoard));
-						}
-					}
-				}
-				if (_theBoard.squares[_rank][_file - 1] != null 
-				    && lastMove != null
-				    && _theBoard.squares[_rank][_file - 1] instanceof Pawn
-				    && _theBoard.squares[_rank][_file - 1].colour != colour
-				    && _theBoard.squares[_rank][_file - 1] == lastMove.pieceMoved
-				    && Math.abs(lastMove.oldRank - lastMove.newRank) == 2) {
-					// Create a new Move represent the this move
-					Move newMove = new Move (_rank, _file, _rank + rankOffset, _file - 1, 0, _theBoard);
-					
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					if (_theBoard.MoveIntoCheck(newMove) == false)
-						possibleMoves.add(newMove);					
-				}
-			}
-
-			// If there is a piece of the opposite colour +1 and ahead, try moving there.
-			if (_file + 1 < 8) {
-				if (_theBoard.squares[_rank + rankOffset][_file + 1] != null &&  _theBoard.squares[_rank + rankOffset][_file + 1].colour != colour) {
-					// Create a new Move represent the this move
-					if (_rank + rankOffset != 0 && _rank + rankOffset != 7) {
-						// The pawn does not promote this move
-						Move newMove = new Move(_rank, _file, _rank + rankOffset, _file + 1, 0, _theBoard);
-					
-						// Discard this move and any further repetitions if the move results in the
-						// player's king being in check.
-						if (_theBoard.MoveIntoCheck(newMove) == false)
-							possibleMoves.add(newMove);
-					} else {
-						// The pawn would promote with this move
-						Move newMove = new Move(_rank, _file, _rank + rankOffset, _file + 1, 2, _theBoard);
-						
-						// Discard this move and any further repetitions if the move results in the
-						// player's king being in check.
-						// Otherwise, add the rest of the promotion possibilities to the list of moves.
-						if (_theBoard.MoveIntoCheck(newMove) == false) {
-							possibleMoves.add(newMove);
-							for (int promotionNumber = 3; promotionNumber <= 5; promotionNumber++)
-								possibleMoves.add(new Move(_rank, _file, _rank + rankOffset, _file + 1, promotionNumber, _theBoard));
-						}
-					}	
-				}
-				if (_theBoard.squares[_rank][_file + 1] != null 
-				    && lastMove != null
-				    && _theBoard.squares[_rank][_file + 1] instanceof Pawn
-				    && _theBoard.squares[_rank][_file + 1].colour != colour
-				    && _theBoard.squares[_rank][_file + 1] == lastMove.pieceMoved
-				    && Math.abs(lastMove.oldRank - lastMove.newRank) == 2) {
-					// Create a new Move represent the this move
-					Move newMove = new Move (_rank, _file, _rank + rankOffset, _file + 1, 0, _theBoard);
-					
-					// Discard this move and any further repetitions if the move results in the
-					// player's king being in check.
-					if (_theBoard.MoveIntoCheck(newMove) == false)
-						possibleMoves.add(newMove);					
-				}
-			}
-
-			return possibleMoves;
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
 		}
 	}
 
-	class Knight extends Piece implements Cloneable {
-		Knight (int _colour) {
+	static final class Knight extends Piece {
+		private Knight (int _colour) {
 			super(_colour, 300, Piece.KNIGHT, "knight");
-			icon += "knight.png";
-			
-			// These are the standard moves a knight can make. 
-		    standardMoves = new PieceMove[8];
-			standardMoves[0] = new PieceMove(1, -2, false);
-			standardMoves[1] = new PieceMove(2, -1, false);
-			standardMoves[2] = new PieceMove(2, 1, false);
-			standardMoves[3] = new PieceMove(1, 2, false);
-			standardMoves[4] = new PieceMove(-1, 2, false);
-			standardMoves[5] = new PieceMove(-2, 1, false);
-			standardMoves[6] = new PieceMove(-2, -1, false);
-			standardMoves[7] = new PieceMove(-1, -2, false);
-		}
-
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			// This piece has no special moves so just return its list of standard moves as generated by Piece.
-			return GetStandardMoves(_theBoard, _rank, _file);
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
 		}
 	}
 
-	class Bishop extends Piece implements Cloneable {
-		Bishop (int _colour) {
+	static final class Bishop extends Piece {
+		private Bishop (int _colour) {
 			super(_colour, 325, Piece.BISHOP, "bishop");
-			icon += "bishop.png";
-			
-			// These are the standard moves a bishop can make. 
-		    standardMoves = new PieceMove[4];
-			standardMoves[0] = new PieceMove(-1, -1, true);
-			standardMoves[1] = new PieceMove(-1, 1, true);
-			standardMoves[2] = new PieceMove(1, -1, true);
-			standardMoves[3] = new PieceMove(1, 1, true);
-		}
-
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			// This piece has no special moves so just return its list of standard moves as generated by Piece.
-			return GetStandardMoves(_theBoard, _rank, _file);
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
 		}
 	}
 
-	class Rook extends Piece implements Cloneable {
-		Rook (int _colour) {
+	static final class Rook extends Piece {
+		private Rook (int _colour) {
 			super(_colour, 500, Piece.ROOK, "rook");
-			icon += "rook.png";
-			
-			// These are the standard moves a rook can make. 
-		    standardMoves = new PieceMove[4];
-			standardMoves[0] = new PieceMove(-1, 0, true);
-			standardMoves[1] = new PieceMove(1, 0, true);
-			standardMoves[2] = new PieceMove(0, -1, true);
-			standardMoves[3] = new PieceMove(0, 1, true);
-		}
-
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			// This piece has no special moves so just return its list of standard moves as generated by Piece.
-			return GetStandardMoves(_theBoard, _rank, _file);
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
 		}
 	}
 
-	class Queen extends Piece implements Cloneable {
-		Queen (int _colour) {
+	static final class Queen extends Piece {
+		private Queen (int _colour) {
 			super(_colour, 900, Piece.QUEEN, "queen");
-			icon += "queen.png";
-			
-			// These are the standard moves a queen can make. 
-			standardMoves = new PieceMove[8];
-			standardMoves[0] = new PieceMove(-1, -1, true);
-			standardMoves[1] = new PieceMove(-1, 0, true);
-			standardMoves[2] = new PieceMove(-1, 1, true);
-			standardMoves[3] = new PieceMove(0, -1, true);
-			standardMoves[4] = new PieceMove(0, 1, true);
-			standardMoves[5] = new PieceMove(1, -1, true);
-			standardMoves[6] = new PieceMove(1, 0, true);
-			standardMoves[7] = new PieceMove(1, 1, true);
-		}
-
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			// This piece has no special moves so just return its list of standard moves as generated by Piece.
-			return GetStandardMoves(_theBoard, _rank, _file);
-		}
-
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
 		}
 	}
 
-	class King extends Piece implements Cloneable {
-		King (int _colour) {
+	static final class King extends Piece {
+		private King (int _colour) {
 			super(_colour, Resources.INFINITY, Piece.KING, "king");
-			icon += "king.png";
-			
-			// These are the standard moves a king can make. 
-		    standardMoves = new PieceMove[8];
-			standardMoves[0] = new PieceMove(-1, -1, false);
-			standardMoves[1] = new PieceMove(-1, 0, false);
-			standardMoves[2] = new PieceMove(-1, 1, false);
-			standardMoves[3] = new PieceMove(0, -1, false);
-			standardMoves[4] = new PieceMove(0, 1, false);
-			standardMoves[5] = new PieceMove(1, -1, false);
-			standardMoves[6] = new PieceMove(1, 0, false);
-			standardMoves[7] = new PieceMove(1, 1, false);
 		}
+	}
 
-		public ArrayList<Move> Moves(Position _theBoard, int _rank, int _file) {
-			ArrayList<Move> possibleMoves = GetStandardMoves(_theBoard, _rank, _file);
-			
-			// Has the king moved?
-			if (moveCount == 0 && !_theBoard.InCheck(colour)) {
-				if (colour == Resources.BLACK) {
-					// Is the queen-side rook still there unmoved?
-					if (_theBoard.squares[7][0] != null && _theBoard.squares[7][0].moveCount == 0) {
-						// Are the squares in between empty.
-						if (_theBoard.squares[7][1] == null && _theBoard.squares[7][2] == null && _theBoard.squares[7][3] == null) {
-							// Are any other those squares being attacked by the other player?
-							if (!_theBoard.SquareAttacked(7, 1, colour) &&
-								!_theBoard.SquareAttacked(7, 2, colour) &&
-								!_theBoard.SquareAttacked(7, 3, colour)) {
-								
-								// Queenside castling is okay so create a Position for the move
-								Move newMove = new Move(7, 4, 7, 2, 0, _theBoard);
-								newMove.castling = Move.QUEEN_SIDE;
-
-								// Add the move to the list
-								possibleMoves.add(newMove);
-							}
-						}
-					}
-					// Is the king-side rook still there unmoved?
-					if (_theBoard.squares[7][7] != null && _theBoard.squares[7][7].moveCount == 0) {
-						// Are the squares in between empty.
-						if (_theBoard.squares[7][5] == null && _theBoard.squares[7][6] == null) {
-							// Are any other those squares being attacked by the other player?
-							if (	!_theBoard.SquareAttacked(7, 5, colour) &&
-								!_theBoard.SquareAttacked(7, 6, colour)) {
-								
-								// King-side castling is okay so create a Position for the move
-								Move newMove = new Move(7, 4, 7, 6, 0, _theBoard);
-								newMove.castling = Move.KING_SIDE;
-
-								// Add the move to the list
-								possibleMoves.add(newMove);
-							}
-						}
-					}
-				} else {
-					// Is the queen-side rook still there unmoved?
-					if (_theBoard.squares[0][0] != null && _theBoard.squares[0][0].moveCount == 0) {
-						// Are the squares in between empty.
-						if (_theBoard.squares[0][1] == null && _theBoard.squares[0][2] == null && _theBoard.squares[0][3] == null) {
-							// Are any other those squares being attacked by the other player?
-							if (!_theBoard.SquareAttacked(0, 1, colour) &&
-								!_theBoard.SquareAttacked(0, 2, colour) &&
-								!_theBoard.SquareAttacked(0, 3, colour)) {
-								
-								// Queen-side castling is okay so create a Position for the move
-								Move newMove = new Move(0, 4, 0, 2, 0, _theBoard);
-								newMove.castling = Move.QUEEN_SIDE;
-
-								// Add the move to the list
-								possibleMoves.add(newMove);
-							}
-						}
-					}
-					// Is the king-side rook still there unmoved?
-					if (_theBoard.squares[0][7] != null && _theBoard.squares[0][7].moveCount == 0) {
-						// Are the squares in between empty.
-						if (_theBoard.squares[0][5] == null && _theBoard.squares[0][6] == null) {
-							// Are any other those squares being attacked by the other player?
-							if (!_theBoard.SquareAttacked(0, 5, colour) &&
-								!_theBoard.SquareAttacked(0, 6, colour)) {
-								
-								// King-side castling is okay so create a Position for the move
-								Move newMove = new Move(0, 4, 0, 6, 0, _theBoard);
-								newMove.castling = Move.KING_SIDE;
-
-								// Add the move to the list
-								possibleMoves.add(newMove);
-							}
-						}
-					}
-				}
-			}
-			
-			return possibleMoves;
-		}
+	// The one piece of each kind, indexed by [colour][Piece.PAWN ... Piece.KING].
+	static final Piece[][] PIECES = new Piece[2][7];
 
-		public Object clone () throws CloneNotSupportedException {
-			return super.clone();
+	static {
+		for (int colour = 0; colour < 2; colour++) {
+			PIECES[colour][Piece.PAWN] = new Pawn(colour);
+			PIECES[colour][Piece.KNIGHT] = new Knight(colour);
+			PIECES[colour][Piece.BISHOP] = new Bishop(colour);
+			PIECES[colour][Piece.ROOK] = new Rook(colour);
+			PIECES[colour][Piece.QUEEN] = new Queen(colour);
+			PIECES[colour][Piece.KING] = new King(colour);
 		}
 	}
-
 }
@@ -28,5 +28,13 @@ class Resources {
 	final static String[] englishColour = { "black", "white" };
 
 	static final int INFINITY = 30000;
+
+	// Returns the size in megabytes a table asked to be the size given can
+	// have. A table can have at most a quarter of the memory Java is allowed,
+	// so the transposition table and the perft table fit in at the same time.
+	static int AffordableMegabytes(int _megabytes) {
+		long most = Runtime.getRuntime().maxMemory() / 4 >> 20;
+		return (int) Math.max(1, Math.min(_megabytes, most));
+	}
 }
 
@@ -0,0 +1,124 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+/**
+ * This class decides how long the engine may think about each move, from
+ * the time control and the time left on its clock. It sets two limits when
+ * the engine starts thinking. Once the soft limit has passed, or the next
+ * iteration of the search isn't expected to finish before the hard limit,
+ * no deeper search is started. At the hard limit the search in progress is
+ * abandoned. Until a clock or a time per move is given there are no limits,
+ * and the engine searches to a fixed depth instead.
+ *
+ * All times are in milliseconds.
+ */
+final class TimeManager {
+	// The number of moves the time left is shared between, if the time
+	// control doesn't say how many are left before more time is added.
+	private static final int DEFAULT_MOVES_TO_GO = 30;
+
+	// The time kept back from each move to cover the time taken to send the
+	// move and for the search to notice the hard limit has passed.
+	private static final long SAFETY_MARGIN = 50;
+
+	// If the time control gives a number of moves per session, the clock has
+	// more time added after each of them, along with the increment for each
+	// move made.
+	private int movesPerSession = 0;
+	private long increment = 0;
+
+	// A fixed time for each move, or 0 if the clock is to be used.
+	private long timePerMove = 0;
+
+	// The time left on the engine's clock, or -1 if it isn't known.
+	private long timeLeft = -1;
+
+	private long startTime;
+	private long softLimit;
+	private long hardLimit;
+
+	// Sets a conventional or incremental time control. The clock starts with
+	// the base time, which also tells how much is added after each session.
+	void SetLevel(int _movesPerSession, long _baseTime, long _increment) {
+		movesPerSession = _movesPerSession;
+		increment = _increment;
+		timeLeft = _baseTime;
+		timePerMove = 0;
+	}
+
+	void SetTimePerMove(long _time) {
+		timePerMove = _time;
+	}
+
+	void SetTimeLeft(long _time) {
+		timeLeft = _time;
+	}
+
+	// Returns true if the engine's thinking is limited by time.
+	boolean Timed() {
+		return timePerMove > 0 || timeLeft >= 0;
+	}
+
+	// Works out the limits for the move about to be thought about, given the
+	// number of moves (by both players) made so far in the game.
+	void Start(int _movesMade) {
+		startTime = System.currentTimeMillis();
+
+		if (timePerMove > 0) {
+			softLimit = Math.max(1, timePerMove - SAFETY_MARGIN);
+			hardLimit = softLimit;
+		} else if (timeLeft >= 0) {
+			int movesToGo = DEFAULT_MOVES_TO_GO;
+			if (movesPerSession > 0)
+				movesToGo = movesPerSession - (_movesMade / 2) % movesPerSession;
+
+			// The search may run on well past its share of the time when it
+			// needs to, but never uses up the clock.
+			long usable = Math.max(1, timeLeft - SAFETY_MARGIN);
+			hardLimit = Math.min(usable, (usable / movesToGo + increment * 3 / 4) * 4);
+			softLimit = Math.min(hardLimit, usable / movesToGo + increment * 3 / 4);
+		} else {
+			softLimit = Long.MAX_VALUE;
+			hardLimit = Long.MAX_VALUE;
+		}
+	}
+
+	long Elapsed() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	// Returns true if there is time to search another ply deeper, given the
+	// time the last two iterations took. Each iteration is expected to take
+	// as many times longer than the last as the last did than the one before.
+	boolean Deepen(long _lastIteration, long _iterationBefore) {
+		long elapsed = Elapsed();
+		long growth = 4;
+
+		if (_iterationBefore > 0)
+			growth = Math.max(2, Math.min(8, _lastIteration / _iterationBefore));
+
+		return elapsed < softLimit && elapsed + _lastIteration * growth < hardLimit;
+	}
+
+	boolean HardLimitReached() {
+		return Elapsed() >= hardLimit;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+import java.util.*;
+
+/**
+ * This class remembers the results of searching positions, indexed by the
+ * position's key (see <code>Zobrist</code>), so a position reached again by
+ * a different order of moves, by the next iteration of the search or by
+ * the search for the next move needn't always be searched again. Even when
+ * the result can't be used, the best move found last time is tried first.
+ *
+ * Each entry is two longs, the data packed as below and that xored with the
+ * key, so an entry whose halves don't belong together is never matched. The
+ * entries are grouped in buckets of four, 64 bytes, which is the size of a
+ * cache line on most machines. A position can be stored in any entry of its
+ * bucket, and replaces the one that is least worth keeping, which is the
+ * shallowest search, counting each search the table has been used for since
+ * an entry was stored as taking a ply off its depth.
+ *
+ *   bits  0 - 23  the best move, packed as described in PackedMove
+ *   bits 24 - 39  the evaluation
+ *   bits 40 - 41  the bound, whether the evaluation is exact or a limit
+ *   bits 42 - 49  the depth searched to
+ *   bits 50 - 57  the generation, the number of the search it was stored by
+ */
+final class TranspositionTable {
+	// Whether the evaluation stored is the exact evaluation of the position,
+	// or the search was cut off so the evaluation is at least (LOWER_BOUND) or
+	// at most (UPPER_BOUND) what is stored.
+	static final int EXACT = 1;
+	static final int LOWER_BOUND = 2;
+	static final int UPPER_BOUND = 3;
+
+	private static final int BUCKET_SIZE = 4;
+
+	// Scores this close to infinity are mates, which the search scores by the
+	// number of moves from the top level they are reached in. They are stored
+	// counted from the position instead, so they are right however many moves
+	// it is reached in next time.
+	private static final int MATE_SCORE = Resources.INFINITY - 1000;
+
+	private final long[] entries;
+	private final int mask;
+	private int generation = 0;
+
+	TranspositionTable(int _megabytes) {
+		// The number of buckets is a power of two, so the index can be taken
+		// from the low bits of the key.
+		long size = Math.max(1, ((long) _megabytes << 20) / (BUCKET_SIZE * 16));
+		int bucketCount = Integer.highestOneBit((int) Math.min(size, 1 << 26));
+
+		entries = new long[bucketCount * BUCKET_SIZE * 2];
+		mask = bucketCount - 1;
+	}
+
+	// Called at the start of each search, so the entries from earlier
+	// searches can be told apart from the new ones.
+	void NewSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	void Clear() {
+		Arrays.fill(entries, 0);
+		generation = 0;
+	}
+
+	// Returns the entry stored for the key, or 0 if there isn't one.
+	long Probe(long _key) {
+		int bucket = ((int) _key & mask) * BUCKET_SIZE * 2;
+
+		for (int index = bucket; index < bucket + BUCKET_SIZE * 2; index += 2) {
+			long data = entries[index + 1];
+			if ((entries[index] ^ data) == _key && data != 0)
+				return data;
+		}
+
+		return 0;
+	}
+
+	void Store(long _key, int _move, int _evaluation, int _bound, int _depth, int _ply) {
+		if (_evaluation >= MATE_SCORE)
+			_evaluation += _ply;
+		else if (_evaluation <= -MATE_SCORE)
+			_evaluation -= _ply;
+
+		int bucket = ((int) _key & mask) * BUCKET_SIZE * 2;
+		int replace = bucket;
+		int replaceWorth = Integer.MAX_VALUE;
+
+		for (int index = bucket; index < bucket + BUCKET_SIZE * 2; index += 2) {
+			long data = entries[index + 1];
+
+			// The position is already stored, so its entry is brought up to
+			// date. The best move found before is kept if none was found now.
+			if ((entries[index] ^ data) == _key && data != 0) {
+				if (_move == PackedMove.NONE)
+					_move = Move(data);
+				replace = index;
+				break;
+			}
+
+			int age = (generation - Generation(data)) & 0xFF;
+			int worth = (data == 0) ? Integer.MIN_VALUE : Depth(data) - age;
+			if (worth < replaceWorth) {
+				replace = index;
+				replaceWorth = worth;
+			}
+		}
+
+		long data = _move
+				| (long) (_evaluation & 0xFFFF) << 24
+				| (long) _bound << 40
+				| (long) (_depth & 0xFF) << 42
+				| (long) generation << 50;
+
+		entries[replace + 1] = data;
+		entries[replace] = _key ^ data;
+	}
+
+	static int Move(long _entry) {
+		return (int) (_entry & 0xFFFFFF);
+	}
+
+	// Returns the evaluation stored, for the position reached the number of
+	// moves given from the top level.
+	static int Evaluation(long _entry, int _ply) {
+		int evaluation = (short) (_entry >>> 24);
+
+		if (evaluation >= MATE_SCORE)
+			return evaluation - _ply;
+		if (evaluation <= -MATE_SCORE)
+			return evaluation + _ply;
+
+		return evaluation;
+	}
+
+	static int Bound(long _entry) {
+		return (int) (_entry >>> 40) & 0x3;
+	}
+
+	static int Depth(long _entry) {
+		return (int) (_entry >>> 42) & 0xFF;
+	}
+
+	private static int Generation(long _entry) {
+		return (int) (_entry >>> 50) & 0xFF;
+	}
+}
@@ -60,7 +60,7 @@ class XBoardInterface implements IOInterface {
 			if (inputLine.equals("xboard")) {
 				inputLine = stdin.readLine();
 				if (inputLine.equals("protover 2")) {
-					System.out.println("feature reuse=0 sigint=0 sigterm=0 draw=0 myname=\"Animats\" done=1");
+					System.out.println("feature reuse=0 sigint=0 sigterm=0 draw=0 memory=1 myname=\"Animats\" done=1");
 				}
 			} else {
 				engine.Quit();
@@ -91,6 +91,21 @@ class XBoardInterface implements IOInterface {
 						engine.random = false;
 					} else if (inputLine.equals("random")) {
 						engine.random = true;
+					} else if (inputLine.startsWith("time ")) {
+						// The engine's clock, in centiseconds.
+						try {
+							engine.timeManager.SetTimeLeft(Long.parseLong(inputLine.substring(5).trim()) * 10);
+						} catch (NumberFormatException _exception) {
+						}
+					} else if (inputLine.startsWith("otim ")) {
+						// The opponent's clock isn't used.
+					} else if (inputLine.startsWith("level ")) {
+						SetLevel(inputLine);
+					} else if (inputLine.startsWith("st ")) {
+						try {
+							engine.timeManager.SetTimePerMove((long) (Double.parseDouble(inputLine.substring(3).trim()) * 1000));
+						} catch (NumberFormatException _exception) {
+						}
 					} else if (inputLine.equals("undo")) {
 						theBoard.UndoMove();
 						engine.DetermineImmediateMoves();
@@ -131,6 +146,22 @@ class XBoardInterface implements IOInterface {
 						// new sets the engine to be black according to the documentation
 						AnimatsChess.player[Resources.WHITE].computer = false;
 						AnimatsChess.player[Resources.BLACK].computer = true;
+					} else if (inputLine.startsWith("memory ")) {
+						// All the memory xboard allows goes to the transposition table.
+						try {
+							int megabytes = Math.max(1, Integer.parseInt(inputLine.substring(7).trim()));
+							int used = engine.SetHashSize(megabytes);
+							if (used < megabytes)
+								System.out.println("# there is only memory for a " + used + "MB hash table");
+						} catch (NumberFormatException _exception) {
+						}
+					} else if (inputLine.startsWith("perft ") || inputLine.startsWith("divide ") || inputLine.startsWith("perfthash ")) {
+						// The result is sent as comment lines, which xboard ignores.
+						String report = ConsoleInterface.PerftReport(engine, inputLine);
+						if (report != null) {
+							for (String line : report.split("\n"))
+								System.out.println("# " + line);
+						}
 					} else if (inputLine.equals("warranty")) {
 						System.out.println("This program is distributed in the hope that it will be useful,");
 						System.out.println("but WITHOUT ANY WARRANTY; without even the implied warranty of");
@@ -148,6 +179,28 @@ class XBoardInterface implements IOInterface {
     		System.err.println( "error reading stdin: " + error );
 		}
 	}
+
+	/**
+	 * This method handles the 'level MPS BASE INC' command, which sets a
+	 * time control of MPS moves (0 for the whole game) in BASE minutes, or 
+	 * minutes:seconds, with INC seconds added after each move.
+	 */
+	private void SetLevel(String _command) {
+		String[] words = _command.trim().split(" +");
+		if (words.length != 4)
+			return;
+
+		try {
+			String[] base = words[2].split(":");
+			long baseTime = Long.parseLong(base[0]) * 60000;
+			if (base.length > 1)
+				baseTime += Long.parseLong(base[1]) * 1000;
+
+			engine.timeManager.SetLevel(Integer.parseInt(words[1]), baseTime, (long) (Double.parseDouble(words[3]) * 1000));
+		} catch (NumberFormatException _exception) {
+		}
+	}
+
 	/**
 	 * This method is called when an informational text string
 	 * regarding the engine's thinking is to be displayed.
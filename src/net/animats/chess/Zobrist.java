@@ -0,0 +1,75 @@
+/*
+ * Animats Chess Engine, started 8 August 2005, played its first game 9 September 2005
+ * Copyright (C) 2005-2009 Stuart Allen, 2022 En-En
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.animats.chess;
+
+import java.util.*;
+
+/**
+ * This class holds the random numbers used to give each position a 64 bit
+ * key. The key of a position is the exclusive or of the number for each
+ * piece on each square, the number for the side to move if it is black, and
+ * the numbers for the castling rights and en passant file. Making a move
+ * only changes a few of these, so the key can be kept up to date by xoring
+ * those numbers in and out rather than being worked out from scratch.
+ */
+final class Zobrist {
+	// Indexed by [colour][Piece.PAWN ... Piece.KING][square].
+	static final long[][][] PIECES = new long[2][7][64];
+
+	static final long BLACK_TO_MOVE;
+
+	// Indexed by the castling rights bitmask (see Position).
+	static final long[] CASTLING = new long[16];
+
+	static final long[] EN_PASSANT_FILE = new long[8];
+
+	static {
+		// A fixed seed gives the same keys every time, so they can be saved.
+		Random random = new Random(0x416E696D617473L);
+
+		for (int colour = 0; colour < 2; colour++) {
+			for (int type = Position.Piece.PAWN; type <= Position.Piece.KING; type++) {
+				for (int square = 0; square < 64; square++)
+					PIECES[colour][type][square] = random.nextLong();
+			}
+		}
+
+		BLACK_TO_MOVE = random.nextLong();
+
+		// Each right gets its own number, so that losing one right is a
+		// single xor whatever the other rights are.
+		long[] rights = new long[4];
+		for (int right = 0; right < 4; right++)
+			rights[right] = random.nextLong();
+
+		for (int mask = 0; mask < 16; mask++) {
+			for (int right = 0; right < 4; right++) {
+				if ((mask & (1 << right)) != 0)
+					CASTLING[mask] ^= rights[right];
+			}
+		}
+
+		for (int file = 0; file < 8; file++)
+			EN_PASSANT_FILE[file] = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+}